@@ -0,0 +1,72 @@
+package com.julienviet.releaser.benchmark;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end time of a deploy: from the first PUT until every artifact is uploaded to the staging
+ * server.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DrainBenchmark {
+
+  @Param({"SMALL", "MIXED"})
+  public SizeDistribution sizes;
+
+  @Param({"500"})
+  public int artifacts;
+
+  @Param({"1", "5"})
+  public int maxPoolSize;
+
+  @Param({"1", "10"})
+  public int pipeliningLimit;
+
+  @Param({"false", "true"})
+  public boolean http2;
+
+  @Param({"0", "5"})
+  public long stagingDelay;
+
+  private Fixture fixture;
+  private Buffer[] payloads;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    payloads = sizes.payloads(artifacts);
+    fixture = new Fixture(16);
+    fixture.staging.setDelay(stagingDelay);
+  }
+
+  @Setup(Level.Iteration)
+  public void setupIteration() {
+    // A fresh proxy creates a fresh staging repository
+    fixture.deploy(Fixture.options(maxPoolSize, pipeliningLimit, http2));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    fixture.close();
+  }
+
+  @Benchmark
+  public void deploy() {
+    List<Future<?>> puts = new ArrayList<>(artifacts);
+    for (int i = 0; i < artifacts; i++) {
+      puts.add(fixture.put("/com/acme/artifact-" + i + ".jar", payloads[i]));
+    }
+    Fixture.await(Future.all(puts).compose(v -> fixture.proxy.drain()));
+  }
+}
@@ -0,0 +1,90 @@
+package com.julienviet.releaser.benchmark;
+
+import com.julienviet.releaser.Proxy;
+import com.julienviet.releaser.ProxyOptions;
+import com.julienviet.releaser.StagingServer;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpResponseExpectation;
+import io.vertx.core.http.PoolOptions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A proxy deployed in front of an in-process {@link StagingServer}, with a client deploying to the proxy.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class Fixture {
+
+  static final int PROXY_PORT = 18080;
+  static final int STAGING_PORT = 18081;
+
+  final Vertx vertx = Vertx.vertx();
+  final StagingServer staging = new StagingServer(vertx);
+  final HttpClient client;
+  Proxy proxy;
+  private String deployment;
+
+  Fixture(int concurrency) {
+    await(staging.listen(STAGING_PORT));
+    client = vertx.createHttpClient(new HttpClientOptions()
+      .setDefaultPort(PROXY_PORT)
+      .setKeepAlive(true), new PoolOptions().setHttp1MaxSize(concurrency));
+  }
+
+  static ProxyOptions options(int maxPoolSize, int pipeliningLimit, boolean http2) {
+    return new ProxyOptions()
+      .setStagingProfileId("benchmark")
+      .setStagingHost("localhost")
+      .setStagingPort(STAGING_PORT)
+      .setStagingSsl(false)
+      .setStagingMaxPoolSize(maxPoolSize)
+      .setStagingPipelining(pipeliningLimit > 1)
+      .setStagingPipeliningLimit(pipeliningLimit)
+      .setStagingHttp2(http2)
+      .setStoreEvictUploaded(true)
+      .setPort(PROXY_PORT);
+  }
+
+  void deploy(ProxyOptions options) {
+    undeploy();
+    proxy = new Proxy(options);
+    deployment = await(vertx.deployVerticle(proxy));
+  }
+
+  void undeploy() {
+    if (deployment != null) {
+      await(vertx.undeploy(deployment));
+      deployment = null;
+      proxy = null;
+    }
+  }
+
+  Future<Void> put(String uri, Buffer body) {
+    return client.request(HttpMethod.PUT, uri)
+      .compose(request -> request
+        .send(body)
+        .expecting(HttpResponseExpectation.SC_CREATED))
+      .mapEmpty();
+  }
+
+  void close() {
+    await(vertx.close());
+  }
+
+  static <T> T await(Future<T> future) {
+    try {
+      return future.toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.julienviet.releaser.benchmark;
+
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the rate at which the proxy accepts PUT requests, the upstream uploads happen in the background.
+ *
+ * Run with {@code -prof gc} and divide {@code gc.alloc.rate} by the {@code megabytes} rate to get the allocation
+ * per MB ingested.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class IngestBenchmark {
+
+  @Param({"SMALL", "MIXED", "LARGE"})
+  public SizeDistribution sizes;
+
+  @Param({"5"})
+  public int maxPoolSize;
+
+  @Param({"1", "10"})
+  public int pipeliningLimit;
+
+  @Param({"false", "true"})
+  public boolean http2;
+
+  private Fixture fixture;
+  private Buffer[] payloads;
+  private final AtomicLong seq = new AtomicLong();
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Traffic {
+    public double megabytes;
+  }
+
+  @Setup
+  public void setup() {
+    payloads = sizes.payloads(64);
+    fixture = new Fixture(8);
+    fixture.deploy(Fixture.options(maxPoolSize, pipeliningLimit, http2));
+  }
+
+  @TearDown
+  public void tearDown() {
+    fixture.close();
+  }
+
+  @Benchmark
+  public void put(Traffic traffic) {
+    long id = seq.getAndIncrement();
+    Buffer payload = payloads[(int) (id % payloads.length)];
+    Fixture.await(fixture.put("/com/acme/artifact-" + id + ".jar", payload));
+    traffic.megabytes += payload.length() / (1024D * 1024D);
+  }
+}
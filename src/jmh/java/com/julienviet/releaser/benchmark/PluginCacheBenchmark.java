@@ -0,0 +1,101 @@
+package com.julienviet.releaser.benchmark;
+
+import com.julienviet.releaser.PluginCache;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugin.descriptor.PluginDescriptorBuilder;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-module overhead of preparing the maven-scm-plugin executions of the commit mojo, with the
+ * descriptor and configuration templates loaded once per session or once per module as before.
+ *
+ * The descriptor is parsed from a plugin descriptor shaped like the maven-scm-plugin one, a real build also resolves
+ * the plugin from the repositories on load, so this is a lower bound of the uncached overhead.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PluginCacheBenchmark {
+
+  private static final String[] GOALS = { "add", "checkin", "tag", "update", "status", "diff", "changelog", "branch" };
+
+  @Param({"false", "true"})
+  public boolean cached;
+
+  private PluginCache cache;
+  private final PluginCache.Loader loader = plugin -> new PluginDescriptorBuilder().build(new StringReader(descriptor()));
+
+  @Setup
+  public void setup() {
+    cache = new PluginCache();
+  }
+
+  @Benchmark
+  public void module(Blackhole blackhole) throws Exception {
+    PluginCache c = cached ? cache : new PluginCache();
+    PluginDescriptor plugin = c.descriptor("org.apache.maven.plugins", "maven-scm-plugin", "1.9.2", loader);
+    Xpp3Dom addConf = configuration("pushChanges", "false", "basedir", "/tmp/module", "includes", "pom.xml");
+    Xpp3Dom checkinConf = configuration("pushChanges", "false", "basedir", "/tmp/module", "message", "Releasing 1.0");
+    MojoExecution add = c.execution(plugin, "add", addConf);
+    MojoExecution checkin = c.execution(plugin, "checkin", checkinConf);
+    blackhole.consume(add);
+    blackhole.consume(checkin);
+  }
+
+  private static Xpp3Dom configuration(String... values) {
+    Xpp3Dom configuration = new Xpp3Dom("configuration");
+    for (int i = 0; i < values.length; i += 2) {
+      Xpp3Dom child = new Xpp3Dom(values[i]);
+      child.setValue(values[i + 1]);
+      configuration.addChild(child);
+    }
+    return configuration;
+  }
+
+  private static String descriptor() {
+    StringBuilder sb = new StringBuilder("<plugin>" +
+      "<name>Maven SCM Plugin</name>" +
+      "<groupId>org.apache.maven.plugins</groupId>" +
+      "<artifactId>maven-scm-plugin</artifactId>" +
+      "<version>1.9.2</version>" +
+      "<goalPrefix>scm</goalPrefix>" +
+      "<mojos>");
+    String[] parameters = { "basedir", "connectionType", "connectionUrl", "developerConnectionUrl", "username",
+      "password", "privateKey", "passphrase", "includes", "excludes", "message", "pushChanges", "workingDirectory",
+      "tag", "scmVersion", "scmVersionType" };
+    for (String goal : GOALS) {
+      sb.append("<mojo>")
+        .append("<goal>").append(goal).append("</goal>")
+        .append("<implementation>org.apache.maven.scm.plugin.").append(goal).append("Mojo</implementation>")
+        .append("<language>java</language>")
+        .append("<parameters>");
+      for (String parameter : parameters) {
+        sb.append("<parameter>")
+          .append("<name>").append(parameter).append("</name>")
+          .append("<type>java.lang.String</type>")
+          .append("<required>false</required>")
+          .append("<editable>true</editable>")
+          .append("<description>The ").append(parameter).append(" of the ").append(goal).append(" goal.</description>")
+          .append("</parameter>");
+      }
+      sb.append("</parameters><configuration>");
+      for (String parameter : parameters) {
+        sb.append("<").append(parameter).append(" implementation=\"java.lang.String\">${").append(parameter).append("}</")
+          .append(parameter).append(">");
+      }
+      sb.append("</configuration></mojo>");
+    }
+    return sb.append("</mojos></plugin>").toString();
+  }
+}
@@ -0,0 +1,59 @@
+package com.julienviet.releaser.benchmark;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Random;
+
+/**
+ * Artifact size distributions of a deploy.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public enum SizeDistribution {
+
+  /**
+   * Poms, checksums and metadata.
+   */
+  SMALL {
+    @Override
+    int size(Random random) {
+      return 32 + random.nextInt(16 * 1024);
+    }
+  },
+
+  /**
+   * A typical module: mostly small files and a few jars.
+   */
+  MIXED {
+    @Override
+    int size(Random random) {
+      return random.nextInt(10) < 8 ? SMALL.size(random) : 64 * 1024 + random.nextInt(2 * 1024 * 1024);
+    }
+  },
+
+  /**
+   * Fat jars and distributions.
+   */
+  LARGE {
+    @Override
+    int size(Random random) {
+      return 4 * 1024 * 1024 + random.nextInt(8 * 1024 * 1024);
+    }
+  };
+
+  abstract int size(Random random);
+
+  /**
+   * Create a pool of random payloads following this distribution, the seed makes runs comparable.
+   */
+  Buffer[] payloads(int count) {
+    Random random = new Random(count);
+    Buffer[] payloads = new Buffer[count];
+    for (int i = 0; i < count; i++) {
+      byte[] bytes = new byte[size(random)];
+      random.nextBytes(bytes);
+      payloads[i] = Buffer.buffer(bytes);
+    }
+    return payloads;
+  }
+}
@@ -6,8 +6,10 @@ import org.apache.maven.model.Model;
 import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.BuildPluginManager;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
@@ -23,10 +25,13 @@ import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.ArtifactRequest;
 import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.jgit.lib.Repository;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 // https://vzurczak.wordpress.com/2014/04/04/no-plugin-found-for-prefix/
@@ -57,6 +62,19 @@ public abstract class AbstractReleaserMojo extends AbstractMojo {
   @Component()
   protected BuildPluginManager pluginManager;
 
+  /**
+   * The number of modules processed concurrently by the tasks running in process, the mojos executed with the
+   * {@link BuildPluginManager} run one at a time.
+   */
+  @Parameter(property = "releaserThreads", defaultValue = "8")
+  protected int releaserThreads;
+
+  /**
+   * The backend of the SCM operations.
+   */
+  @Parameter(property = "scmEngine", defaultValue = "PLUGIN")
+  protected ScmEngine scmEngine;
+
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
     List<MavenProject> projects = new ArrayList<>(mavenSession.getResult().getTopologicallySortedProjects());
@@ -87,6 +105,127 @@ public abstract class AbstractReleaserMojo extends AbstractMojo {
 
   protected abstract void execute(List<MavenProject> projects) throws MojoExecutionException, MojoFailureException;
 
+  /**
+   * The work done for a module, with a session whose current project is the module.
+   */
+  protected interface ModuleTask {
+    void execute(MavenSession session, MavenProject project) throws Exception;
+  }
+
+  /**
+   * @return the git work tree of a project, or its base directory when it is not in a git work tree
+   */
+  protected static File workTree(MavenProject project) {
+    File dir = project.getBasedir().getAbsoluteFile();
+    while (dir != null && !new File(dir, ".git").exists()) {
+      dir = dir.getParentFile();
+    }
+    return dir != null ? dir : project.getBasedir().getAbsoluteFile();
+  }
+
+  /**
+   * Execute {@code task} for each project one after the other on the calling thread, in the reactor order, a failed
+   * project does not skip the next projects.
+   *
+   * The task can execute mojos with the {@link BuildPluginManager}, which swaps the session of the
+   * {@code LegacySupport} for the duration of the mojo. The session is held by an inheritable thread local whose value
+   * is shared with the threads created by the calling thread, so mojos executed on workers would overwrite the session
+   * of each other and of the calling thread.
+   *
+   * @param projects the projects
+   * @param task the task
+   * @throws MojoFailureException when the task failed for any project, after the other projects are done
+   */
+  protected void executeModules(List<MavenProject> projects, ModuleTask task) throws MojoExecutionException, MojoFailureException {
+    execute(0, projects, project -> Collections.emptyList(), project -> {
+      MavenSession session = mavenSession.clone();
+      session.setCurrentProject(project);
+      task.execute(session, project);
+    }, MavenProject::getArtifactId);
+  }
+
+  /**
+   * The work done in process for a project, it must not execute mojos.
+   */
+  protected interface ProjectTask {
+    void execute(MavenProject project) throws Exception;
+  }
+
+  /**
+   * Execute {@code task} in process for each project on {@link #releaserThreads} workers.
+   *
+   * @throws MojoFailureException when the task failed for any project, after the other projects are done
+   */
+  protected void executeProjects(List<MavenProject> projects, ProjectTask task) throws MojoExecutionException, MojoFailureException {
+    execute(releaserThreads, projects, project -> Collections.emptyList(), task::execute, MavenProject::getArtifactId);
+  }
+
+  /**
+   * The work done for the modules of a git repository.
+   */
+  protected interface RepositoryTask {
+    void execute(GitEngine git, Repository repository, List<MavenProject> projects) throws Exception;
+  }
+
+  /**
+   * Execute {@code task} in process for the projects of each git repository on {@link #releaserThreads} workers.
+   *
+   * @throws MojoFailureException when the task failed for any repository, after the other repositories are done
+   */
+  protected void executeRepositories(GitEngine git, List<MavenProject> projects, RepositoryTask task) throws MojoExecutionException, MojoFailureException {
+    Map<Repository, List<MavenProject>> groups;
+    try {
+      groups = git.groupByRepository(projects, MavenProject::getBasedir);
+    } catch (IOException e) {
+      throw new MojoExecutionException(e.getMessage(), e);
+    }
+    execute(releaserThreads, new ArrayList<>(groups.keySet()), repository -> Collections.emptyList(),
+      repository -> task.execute(git, repository, groups.get(repository)),
+      repository -> repository.getWorkTree().getName() + " (" + groups.get(repository)
+        .stream()
+        .map(MavenProject::getArtifactId)
+        .collect(Collectors.joining(", ")) + ")");
+  }
+
+  private <T> void execute(int threads, List<T> modules, Function<T, Collection<T>> upstream, ModuleExecutor.Task<T> task, Function<T, String> name) throws MojoExecutionException, MojoFailureException {
+    ModuleExecutor.Result<T> result;
+    try {
+      result = new ModuleExecutor<T>(threads).execute(modules, upstream, task);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted", e);
+    }
+    result.failed.forEach((module, cause) -> getLog().error("Failed " + name.apply(module), cause));
+    result.skipped.forEach(module -> getLog().warn("Skipped " + name.apply(module) + " after the failure of a module it waits for"));
+    if (!result.isSuccess()) {
+      throw new MojoFailureException(result.failed.size() + " modules failed (" + result.failed.keySet()
+        .stream()
+        .map(name)
+        .collect(Collectors.joining(", ")) + "), " + result.skipped.size() + " modules skipped");
+    }
+  }
+
+  /**
+   * @return the descriptor of a plugin, loaded once per session
+   */
+  protected PluginDescriptor loadPlugin(String groupId, String artifactId, String version) throws Exception {
+    return PluginCache.get(repoSession).descriptor(groupId, artifactId, version, plugin -> pluginManager.loadPlugin(plugin, pluginRepos, repoSession));
+  }
+
+  /**
+   * @return the descriptor of the maven-scm-plugin
+   */
+  protected PluginDescriptor loadScmPlugin() throws Exception {
+    return loadPlugin("org.apache.maven.plugins", "maven-scm-plugin", "1.9.2");
+  }
+
+  /**
+   * @return the execution of a goal with {@code configuration} merged over the default configuration of the goal
+   */
+  protected MojoExecution mojoExecution(PluginDescriptor plugin, String goal, Xpp3Dom configuration) {
+    return PluginCache.get(repoSession).execution(plugin, goal, configuration);
+  }
+
   /**
    * Converts PlexusConfiguration to a Xpp3Dom.
    *
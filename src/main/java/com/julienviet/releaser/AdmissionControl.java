@@ -0,0 +1,94 @@
+package com.julienviet.releaser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throttles the ingest when the backlog of the resources accepted but not yet uploaded exceeds a high watermark of
+ * pending bytes or pending resources, the ingest is open again when the backlog is back under both low watermarks.
+ *
+ * A watermark that is not positive is disabled, a low watermark that is not positive or above its high watermark is
+ * half of its high watermark.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class AdmissionControl {
+
+  enum State {
+    OPEN, THROTTLED
+  }
+
+  interface Listener {
+    void onStateChange(State state);
+  }
+
+  private final long highBytes;
+  private final long lowBytes;
+  private final int highCount;
+  private final int lowCount;
+  private final Listener listener;
+  private final List<Runnable> waiters = new ArrayList<>();
+  private State state = State.OPEN;
+  private long bytes;
+  private int count;
+
+  AdmissionControl(long highBytes, long lowBytes, int highCount, int lowCount, Listener listener) {
+    this.highBytes = highBytes;
+    this.lowBytes = lowBytes > 0 && lowBytes <= highBytes ? lowBytes : highBytes / 2;
+    this.highCount = highCount;
+    this.lowCount = lowCount > 0 && lowCount <= highCount ? lowCount : highCount / 2;
+    this.listener = listener;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  synchronized int getCount() {
+    return count;
+  }
+
+  /**
+   * Update the backlog.
+   */
+  void update(long deltaBytes, int deltaCount) {
+    State changed = null;
+    List<Runnable> resumed = null;
+    synchronized (this) {
+      bytes += deltaBytes;
+      count += deltaCount;
+      if (state == State.OPEN) {
+        if ((highBytes > 0 && bytes > highBytes) || (highCount > 0 && count > highCount)) {
+          state = changed = State.THROTTLED;
+        }
+      } else if ((highBytes <= 0 || bytes <= lowBytes) && (highCount <= 0 || count <= lowCount)) {
+        state = changed = State.OPEN;
+        resumed = new ArrayList<>(waiters);
+        waiters.clear();
+      }
+    }
+    if (changed != null) {
+      listener.onStateChange(changed);
+    }
+    if (resumed != null) {
+      resumed.forEach(Runnable::run);
+    }
+  }
+
+  /**
+   * Run {@code action} now when open, otherwise when the ingest opens again from the thread updating the backlog.
+   */
+  void whenOpen(Runnable action) {
+    synchronized (this) {
+      if (state == State.THROTTLED) {
+        waiters.add(action);
+        return;
+      }
+    }
+    action.run();
+  }
+}
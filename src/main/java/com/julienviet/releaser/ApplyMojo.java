@@ -0,0 +1,64 @@
+package com.julienviet.releaser;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sets the version of every project of the reactor, the versions of the parents, dependencies and plugins referencing
+ * a project of the reactor are updated too. The POMs are rewritten in place with {@link PomRewriter}.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+@Mojo(name = "apply", aggregator = true)
+public class ApplyMojo extends AbstractReleaserMojo {
+
+  @Parameter(property = "newVersion", required = true)
+  private String newVersion;
+
+  @Override
+  protected void execute(List<MavenProject> projects) throws MojoExecutionException, MojoFailureException {
+    // Every POM of the reactor, not only the top level modules
+    List<MavenProject> poms = mavenSession.getProjects();
+    Map<String, String> versions = new HashMap<>();
+    for (MavenProject project : poms) {
+      versions.put(project.getGroupId() + ":" + project.getArtifactId(), newVersion);
+    }
+    PomRewriter rewriter = new PomRewriter(versions);
+    AtomicInteger rewritten = new AtomicInteger();
+    AtomicInteger changes = new AtomicInteger();
+    long start = System.currentTimeMillis();
+    executeProjects(poms, project -> {
+      int count = rewriter.rewrite(project.getFile().toPath(), properties(project));
+      if (count > 0) {
+        rewritten.incrementAndGet();
+        changes.addAndGet(count);
+      }
+    });
+    getLog().info("Applied " + newVersion + " with " + changes.get() + " version changes in " + rewritten.get() + " of " +
+      poms.size() + " POMs in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  private static Properties properties(MavenProject project) {
+    Properties properties = new Properties();
+    properties.putAll(project.getProperties());
+    properties.setProperty("project.groupId", project.getGroupId());
+    properties.setProperty("project.artifactId", project.getArtifactId());
+    properties.setProperty("project.version", project.getVersion());
+    MavenProject parent = project.getParent();
+    if (parent != null) {
+      properties.setProperty("project.parent.groupId", parent.getGroupId());
+      properties.setProperty("project.parent.artifactId", parent.getArtifactId());
+      properties.setProperty("project.parent.version", parent.getVersion());
+    }
+    return properties;
+  }
+}
@@ -0,0 +1,178 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pauses all the uploads when the failure rate of the last requests exceeds a ratio.
+ *
+ * When open, uploads wait until the open delay elapses, then a single probe upload is let through: the breaker closes
+ * when it succeeds and opens again when it fails.
+ *
+ * A breaker is shared by the event loops of the proxy, the waiting uploads resume on the context they waited from.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class CircuitBreaker {
+
+  enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  interface Listener {
+    void onStateChange(State state);
+  }
+
+  /**
+   * Allows an upload, its outcome is reported with {@link #record} or {@link #release}.
+   */
+  static final class Permit {
+
+    private final long generation;
+    private final boolean probe;
+
+    private Permit(long generation, boolean probe) {
+      this.generation = generation;
+      this.probe = probe;
+    }
+
+    boolean isProbe() {
+      return probe;
+    }
+  }
+
+  private static class Waiter {
+
+    final Context context;
+    final Promise<Permit> promise = Promise.promise();
+
+    Waiter(Context context) {
+      this.context = context;
+    }
+
+    void complete(Permit permit) {
+      context.runOnContext(v -> promise.complete(permit));
+    }
+  }
+
+  private final Vertx vertx;
+  private final double failureRatio;
+  private final boolean[] window;
+  private final long openDelay;
+  private final Listener listener;
+  private final Deque<Waiter> waiters = new ArrayDeque<>();
+  private State state = State.CLOSED;
+  // Incremented on each opening, the outcomes of the uploads allowed before are ignored
+  private long generation;
+  private boolean probing;
+  private int count;
+  private int failures;
+  private int index;
+
+  CircuitBreaker(Vertx vertx, double failureRatio, int minRequests, long openDelay, Listener listener) {
+    this.vertx = vertx;
+    this.failureRatio = failureRatio;
+    this.window = new boolean[Math.max(1, minRequests)];
+    this.openDelay = openDelay;
+    this.listener = listener;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return a future completed when an upload is allowed
+   */
+  synchronized Future<Permit> acquire() {
+    if (state == State.CLOSED) {
+      return Future.succeededFuture(new Permit(generation, false));
+    }
+    if (state == State.HALF_OPEN && !probing) {
+      probing = true;
+      return Future.succeededFuture(new Permit(generation, true));
+    }
+    Waiter waiter = new Waiter(vertx.getOrCreateContext());
+    waiters.add(waiter);
+    return waiter.promise.future();
+  }
+
+  /**
+   * Record the outcome of an upload allowed by {@link #acquire()}.
+   */
+  synchronized void record(Permit permit, boolean success) {
+    if (permit.generation != generation) {
+      // Allowed before the breaker opened
+      return;
+    }
+    if (permit.probe) {
+      probing = false;
+      if (success) {
+        count = failures = index = 0;
+        setState(State.CLOSED);
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+          waiter.complete(new Permit(generation, false));
+        }
+      } else {
+        open();
+      }
+    } else if (state == State.CLOSED) {
+      if (count == window.length && window[index]) {
+        failures--;
+      }
+      window[index] = !success;
+      index = (index + 1) % window.length;
+      count = Math.min(count + 1, window.length);
+      if (!success) {
+        failures++;
+      }
+      if (failureRatio > 0 && count == window.length && failures >= failureRatio * count) {
+        open();
+      }
+    }
+  }
+
+  /**
+   * Release an upload allowed by {@link #acquire()} that did not reach the server, a probe is handed over to the next
+   * waiting upload.
+   */
+  synchronized void release(Permit permit) {
+    if (permit.probe && permit.generation == generation) {
+      probing = false;
+      probe();
+    }
+  }
+
+  private void open() {
+    generation++;
+    setState(State.OPEN);
+    long opened = generation;
+    vertx.setTimer(openDelay, id -> {
+      synchronized (CircuitBreaker.this) {
+        if (generation == opened) {
+          setState(State.HALF_OPEN);
+          probe();
+        }
+      }
+    });
+  }
+
+  private void probe() {
+    Waiter waiter = waiters.poll();
+    if (waiter != null) {
+      probing = true;
+      waiter.complete(new Permit(generation, true));
+    }
+  }
+
+  private void setState(State state) {
+    this.state = state;
+    listener.onStateChange(state);
+  }
+}
@@ -1,19 +1,25 @@
 package com.julienviet.releaser;
 
-import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugin.descriptor.MojoDescriptor;
 import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
-import org.codehaus.plexus.util.xml.Xpp3DomUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
@@ -26,57 +32,118 @@ public class CommitMojo extends AbstractReleaserMojo {
 
   @Override
   protected void execute(List<MavenProject> projects) throws MojoExecutionException, MojoFailureException {
-    for (MavenProject project : projects) {
+    try (GitEngine git = new GitEngine()) {
+      long scanStart = System.nanoTime();
+      List<MavenProject> modified = modified(git, projects);
+      long scanTime = (System.nanoTime() - scanStart) / 1_000_000;
+      long start = System.nanoTime();
+      if (scmEngine == ScmEngine.JGIT) {
+        commitRepositories(git, modified);
+      } else {
+        commitModules(modified);
+      }
+      long commitTime = (System.nanoTime() - start) / 1_000_000;
+      int skipped = projects.size() - modified.size();
+      String report = "Skipped " + skipped + " unchanged modules out of " + projects.size() + " after a status scan of " + scanTime + "ms";
+      if (skipped > 0 && modified.size() > 0) {
+        // Estimated from the time spent committing the modified modules
+        report += ", saved about " + Math.max(0, skipped * commitTime / modified.size() - scanTime) + "ms";
+      }
+      getLog().info(report);
+    }
+  }
 
+  /**
+   * Scan each git repository once to find the projects with a modified {@code pom.xml}, the projects that are not in
+   * a git repository are assumed modified.
+   */
+  private List<MavenProject> modified(GitEngine git, List<MavenProject> projects) throws MojoExecutionException {
+    Map<Repository, List<File>> groups = new LinkedHashMap<>();
+    Set<File> modified = new HashSet<>();
+    for (MavenProject project : projects) {
       try {
+        groups.computeIfAbsent(git.open(project.getBasedir()), k -> new ArrayList<>()).add(project.getBasedir());
+      } catch (IOException e) {
+        modified.add(project.getBasedir());
+      }
+    }
+    for (Map.Entry<Repository, List<File>> group : groups.entrySet()) {
+      try {
+        modified.addAll(git.modified(group.getKey(), group.getValue()));
+      } catch (Exception e) {
+        throw new MojoExecutionException("Could not scan " + group.getKey().getWorkTree(), e);
+      }
+    }
+    return projects
+      .stream()
+      .filter(project -> modified.contains(project.getBasedir()))
+      .collect(Collectors.toList());
+  }
 
-        Plugin plugin = new Plugin();
-        plugin.setGroupId("org.apache.maven.plugins");
-        plugin.setArtifactId("maven-scm-plugin");
-        plugin.setVersion("1.9.2");
-        PluginDescriptor pluginDesc = pluginManager.loadPlugin(plugin, pluginRepos, repoSession);
-
-        // Various conf
-        Xpp3Dom pushChangesDom = new Xpp3Dom("pushChanges");
-        pushChangesDom.setValue("false");
-        Xpp3Dom basedirDom = new Xpp3Dom("basedir");
-        basedirDom.setValue(project.getBasedir().getAbsolutePath());
+  private void commitRepositories(GitEngine engine, List<MavenProject> projects) throws MojoExecutionException, MojoFailureException {
+    executeRepositories(engine, projects, (git, repository, group) -> {
+      String msg;
+      if (commitMessage == null || commitMessage.isEmpty()) {
+        msg = "Releasing " + group
+          .stream()
+          .map(project -> project.getArtifact().getVersion())
+          .distinct()
+          .collect(Collectors.joining(", "));
+      } else {
+        msg = commitMessage;
+      }
+      ObjectId commit = git.commit(repository, group.stream().map(MavenProject::getBasedir).collect(Collectors.toList()), msg);
+      if (commit != null) {
+        getLog().info("Committed " + group.size() + " modules in " + repository.getWorkTree() + " as " + commit.abbreviate(7).name());
+      } else {
+        getLog().info("Nothing to commit in " + repository.getWorkTree());
+      }
+    });
+  }
 
-        // Add modified pom.xml
-        MojoDescriptor addDesc = pluginDesc.getMojo("add");
-        Xpp3Dom includesDom = new Xpp3Dom("includes");
-        includesDom.setValue("pom.xml");
-        Xpp3Dom addConfDom = new Xpp3Dom("configuration");
-        addConfDom.addChild(pushChangesDom);
-        addConfDom.addChild(basedirDom);
-        addConfDom.addChild(includesDom);
-        MojoExecution addExec = new MojoExecution(addDesc, Xpp3DomUtils.mergeXpp3Dom(addConfDom, toXpp3Dom(addDesc.getMojoConfiguration())));
+  private void commitModules(List<MavenProject> projects) throws MojoExecutionException, MojoFailureException {
+    PluginDescriptor pluginDesc;
+    try {
+      pluginDesc = loadScmPlugin();
+    } catch (Exception e) {
+      throw new MojoExecutionException("Could not load the maven-scm-plugin", e);
+    }
+    executeModules(projects, (session, project) -> {
 
-        // Commit
-        MojoDescriptor checkinDesc = pluginDesc.getMojo("checkin");
-        Xpp3Dom messageDom = new Xpp3Dom("message");
-        String msg;
-        if (commitMessage == null || commitMessage.isEmpty()) {
-          String version = project.getArtifact().getVersion();
-          msg = "Releasing " + version;
-        } else {
-          msg = commitMessage;
-        }
-        messageDom.setValue(msg);
-        Xpp3Dom checkinConfDom = new Xpp3Dom("configuration");
-        checkinConfDom.addChild(pushChangesDom);
-        checkinConfDom.addChild(basedirDom);
-        checkinConfDom.addChild(messageDom);
-        MojoExecution checkinExec = new MojoExecution(checkinDesc, Xpp3DomUtils.mergeXpp3Dom(checkinConfDom, toXpp3Dom(checkinDesc.getMojoConfiguration())));
+      // Various conf
+      Xpp3Dom pushChangesDom = new Xpp3Dom("pushChanges");
+      pushChangesDom.setValue("false");
+      Xpp3Dom basedirDom = new Xpp3Dom("basedir");
+      basedirDom.setValue(project.getBasedir().getAbsolutePath());
 
-        // Execute mojos
-        mavenSession.setCurrentProject(project);
-        pluginManager.executeMojo(mavenSession, addExec);
-        pluginManager.executeMojo(mavenSession, checkinExec);
+      // Add modified pom.xml
+      Xpp3Dom includesDom = new Xpp3Dom("includes");
+      includesDom.setValue("pom.xml");
+      Xpp3Dom addConfDom = new Xpp3Dom("configuration");
+      addConfDom.addChild(pushChangesDom);
+      addConfDom.addChild(basedirDom);
+      addConfDom.addChild(includesDom);
+      MojoExecution addExec = mojoExecution(pluginDesc, "add", addConfDom);
 
-      } catch (Exception e) {
-        e.printStackTrace();
+      // Commit
+      Xpp3Dom messageDom = new Xpp3Dom("message");
+      String msg;
+      if (commitMessage == null || commitMessage.isEmpty()) {
+        String version = project.getArtifact().getVersion();
+        msg = "Releasing " + version;
+      } else {
+        msg = commitMessage;
       }
-    }
+      messageDom.setValue(msg);
+      Xpp3Dom checkinConfDom = new Xpp3Dom("configuration");
+      checkinConfDom.addChild(new Xpp3Dom(pushChangesDom));
+      checkinConfDom.addChild(new Xpp3Dom(basedirDom));
+      checkinConfDom.addChild(messageDom);
+      MojoExecution checkinExec = mojoExecution(pluginDesc, "checkin", checkinConfDom);
+
+      // Execute mojos
+      pluginManager.executeMojo(session, addExec);
+      pluginManager.executeMojo(session, checkinExec);
+    });
   }
 }
@@ -0,0 +1,85 @@
+package com.julienviet.releaser;
+
+/**
+ * Limits the number of concurrent upstream requests.
+ *
+ * When adaptive, the limit follows an AIMD scheme: it grows additively while the request latency stays close to the
+ * lowest observed latency and is cut multiplicatively on overload (5xx, 429 or timeout).
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class ConcurrencyLimiter {
+
+  private static final double LATENCY_TOLERANCE = 2.0D;
+  private static final double BACKOFF_RATIO = 0.5D;
+
+  interface Listener {
+    void onLimitChange(int limit);
+  }
+
+  private final int min;
+  private final int max;
+  private final boolean adaptive;
+  private final Listener listener;
+  private double limit;
+  private int inflight;
+  private long minLatency = Long.MAX_VALUE;
+  private long lastBackoff;
+
+  ConcurrencyLimiter(int initial, int max, boolean adaptive, Listener listener) {
+    this.min = 1;
+    this.max = max;
+    this.adaptive = adaptive;
+    this.listener = listener;
+    this.limit = adaptive ? Math.min(initial, max) : max;
+  }
+
+  int getLimit() {
+    return (int) limit;
+  }
+
+  int getInflight() {
+    return inflight;
+  }
+
+  /**
+   * @return whether a slot could be acquired
+   */
+  boolean tryAcquire() {
+    if (inflight < (int) limit) {
+      inflight++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Release a slot acquired with {@link #tryAcquire()}.
+   *
+   * @param latency the request latency in nanoseconds
+   * @param success whether the request succeeded
+   * @param overloaded whether the request failed because the server is overloaded
+   */
+  void release(long latency, boolean success, boolean overloaded) {
+    inflight--;
+    if (adaptive) {
+      int previous = (int) limit;
+      long now = System.nanoTime();
+      if (overloaded) {
+        // Backoff at most once per latency window
+        if (minLatency == Long.MAX_VALUE || now - lastBackoff > minLatency) {
+          lastBackoff = now;
+          limit = Math.max(min, limit * BACKOFF_RATIO);
+        }
+      } else if (success) {
+        minLatency = Math.min(minLatency, latency);
+        if (latency <= minLatency * LATENCY_TOLERANCE && inflight + 1 >= (int) limit) {
+          limit = Math.min(max, limit + 1D / limit);
+        }
+      }
+      if ((int) limit != previous) {
+        listener.onLimitChange((int) limit);
+      }
+    }
+  }
+}
@@ -0,0 +1,400 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxException;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps contents in memory within a budget, larger contents or contents exceeding the budget are spilled to disk.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class DefaultResourceStore implements ResourceStore {
+
+  /**
+   * The bodies larger than this are digested on a worker instead of the event loop.
+   */
+  static final int DIGEST_INLINE_MAX_SIZE = 64 * 1024;
+  static final int DIGEST_CHUNK_SIZE = 8 * 1024;
+
+  private final Vertx vertx;
+  private final long memoryBudget;
+  private final long spillThreshold;
+  private final String directory;
+  private final String prefix = Long.toHexString(System.currentTimeMillis());
+  private final boolean temporary;
+  private final AtomicLong memoryUsage = new AtomicLong();
+  private final AtomicLong diskUsage = new AtomicLong();
+  private final AtomicLong seq = new AtomicLong();
+
+  DefaultResourceStore(Vertx vertx, ProxyOptions options) {
+    this.vertx = vertx;
+    this.memoryBudget = options.getStoreMemoryBudget();
+    if (options.getJournalDirectory() != null) {
+      // Journaled contents must be durable
+      this.spillThreshold = -1L;
+      this.directory = options.getJournalDirectory() + File.separator + "store";
+      this.temporary = false;
+      vertx.fileSystem().mkdirsBlocking(directory);
+    } else if (options.getStoreDirectory() != null) {
+      this.spillThreshold = options.getStoreSpillThreshold();
+      this.directory = options.getStoreDirectory();
+      this.temporary = false;
+      vertx.fileSystem().mkdirsBlocking(directory);
+    } else {
+      try {
+        this.directory = Files.createTempDirectory("releaser-proxy").toString();
+      } catch (IOException e) {
+        throw new VertxException(e);
+      }
+      this.spillThreshold = options.getStoreSpillThreshold();
+      this.temporary = true;
+    }
+  }
+
+  @Override
+  public Future<Content> store(String path, Buffer body) {
+    if (body.length() <= DIGEST_INLINE_MAX_SIZE) {
+      return store(body, digest(body));
+    }
+    return vertx.executeBlocking(() -> digest(body), false).compose(digest -> store(body, digest));
+  }
+
+  private Future<Content> store(Buffer body, String digest) {
+    long length = body.length();
+    if (length <= spillThreshold) {
+      if (memoryUsage.addAndGet(length) <= memoryBudget) {
+        return Future.succeededFuture(new MemoryContent(body, digest));
+      }
+      memoryUsage.addAndGet(-length);
+    }
+    String file = nextFile();
+    return vertx.fileSystem()
+      .writeFile(file, body)
+      .map(v -> {
+        diskUsage.addAndGet(length);
+        return new FileContent(file, length, digest);
+      });
+  }
+
+  @Override
+  public Future<ContentWriter> open(String path) {
+    String file = nextFile();
+    return vertx.fileSystem()
+      .open(file, new OpenOptions().setWrite(true).setCreate(true).setTruncateExisting(true))
+      .map(stream -> new FileContentWriter(file, stream));
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new VertxException(e);
+    }
+  }
+
+  private static String digest(Buffer body) {
+    MessageDigest md = newDigest();
+    update(md, body, new byte[Math.min(body.length(), DIGEST_CHUNK_SIZE)]);
+    return toHex(md.digest());
+  }
+
+  /**
+   * Update {@code md} with the buffer bytes, copied through {@code chunk} rather than in a single array.
+   */
+  private static void update(MessageDigest md, Buffer data, byte[] chunk) {
+    int length = data.length();
+    for (int from = 0; from < length; from += chunk.length) {
+      int to = Math.min(length, from + chunk.length);
+      data.getBytes(from, to, chunk, 0);
+      md.update(chunk, 0, to - from);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  private String nextFile() {
+    return directory + File.separator + prefix + "-" + seq.incrementAndGet() + ".bin";
+  }
+
+  @Override
+  public Future<Content> restore(String file, long length, String digest) {
+    return vertx.fileSystem().exists(file).map(exists -> {
+      if (!exists) {
+        return null;
+      }
+      diskUsage.addAndGet(length);
+      return new FileContent(file, length, digest);
+    });
+  }
+
+  @Override
+  public long getMemoryUsage() {
+    return memoryUsage.get();
+  }
+
+  @Override
+  public long getDiskUsage() {
+    return diskUsage.get();
+  }
+
+  @Override
+  public Future<Void> close() {
+    if (temporary) {
+      return vertx.fileSystem().deleteRecursive(directory, true);
+    }
+    return Future.succeededFuture();
+  }
+
+  private class MemoryContent implements Content {
+
+    private volatile Buffer buffer;
+    private final long length;
+    private final String digest;
+
+    MemoryContent(Buffer buffer, String digest) {
+      this.buffer = buffer;
+      this.length = buffer.length();
+      this.digest = digest;
+    }
+
+    @Override
+    public long length() {
+      return length;
+    }
+
+    @Override
+    public String digest() {
+      return digest;
+    }
+
+    @Override
+    public String file() {
+      return null;
+    }
+
+    @Override
+    public boolean isReleased() {
+      return buffer == null;
+    }
+
+    @Override
+    public Future<Void> send(HttpServerResponse response) {
+      Buffer b = buffer;
+      if (b == null) {
+        return Future.failedFuture("Content released");
+      }
+      return response.end(b);
+    }
+
+    @Override
+    public Future<Buffer> read() {
+      Buffer b = buffer;
+      if (b == null) {
+        return Future.failedFuture("Content released");
+      }
+      return Future.succeededFuture(b);
+    }
+
+    @Override
+    public Future<HttpClientResponse> send(HttpClientRequest request) {
+      Buffer b = buffer;
+      if (b == null) {
+        return Future.failedFuture("Content released");
+      }
+      return request.send(b);
+    }
+
+    @Override
+    public void release() {
+      if (buffer != null) {
+        buffer = null;
+        memoryUsage.addAndGet(-length);
+      }
+    }
+  }
+
+  private class FileContent implements Content {
+
+    private final String file;
+    private final long length;
+    private final String digest;
+    private volatile boolean released;
+
+    FileContent(String file, long length, String digest) {
+      this.file = file;
+      this.length = length;
+      this.digest = digest;
+    }
+
+    @Override
+    public long length() {
+      return length;
+    }
+
+    @Override
+    public String digest() {
+      return digest;
+    }
+
+    @Override
+    public String file() {
+      return file;
+    }
+
+    @Override
+    public boolean isReleased() {
+      return released;
+    }
+
+    @Override
+    public Future<Void> send(HttpServerResponse response) {
+      if (released) {
+        return Future.failedFuture("Content released");
+      }
+      return response.sendFile(file);
+    }
+
+    @Override
+    public Future<Buffer> read() {
+      if (released) {
+        return Future.failedFuture("Content released");
+      }
+      return vertx.fileSystem().readFile(file);
+    }
+
+    @Override
+    public Future<HttpClientResponse> send(HttpClientRequest request) {
+      if (released) {
+        return Future.failedFuture("Content released");
+      }
+      return vertx.fileSystem()
+        .open(file, new OpenOptions().setRead(true).setWrite(false).setCreate(false))
+        .compose(stream -> {
+          request.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+          return request
+            .send(stream)
+            .andThen(ar -> stream.close());
+        });
+    }
+
+    @Override
+    public void release() {
+      if (!released) {
+        released = true;
+        diskUsage.addAndGet(-length);
+        vertx.fileSystem().delete(file);
+      }
+    }
+  }
+
+  private class FileContentWriter implements ContentWriter {
+
+    private final String file;
+    private final AsyncFile stream;
+    private final Promise<Content> content = Promise.promise();
+    private final MessageDigest md = newDigest();
+    private final byte[] chunk = new byte[DIGEST_CHUNK_SIZE];
+    private long length;
+    private boolean aborted;
+
+    FileContentWriter(String file, AsyncFile stream) {
+      this.file = file;
+      this.stream = stream;
+    }
+
+    @Override
+    public Future<Content> content() {
+      return content.future();
+    }
+
+    @Override
+    public void abort() {
+      if (!aborted) {
+        aborted = true;
+        content.tryFail("Aborted");
+        stream.close().onComplete(ar -> vertx.fileSystem().delete(file));
+      }
+    }
+
+    @Override
+    public ContentWriter exceptionHandler(Handler<Throwable> handler) {
+      stream.exceptionHandler(handler);
+      return this;
+    }
+
+    @Override
+    public Future<Void> write(Buffer data) {
+      length += data.length();
+      update(md, data, chunk);
+      return stream.write(data);
+    }
+
+    @Override
+    public void write(Buffer data, Handler<AsyncResult<Void>> handler) {
+      length += data.length();
+      update(md, data, chunk);
+      stream.write(data, handler);
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+      Future<Void> fut = stream.close();
+      fut.onComplete(ar -> {
+        if (aborted) {
+          return;
+        }
+        if (ar.succeeded()) {
+          diskUsage.addAndGet(length);
+          content.tryComplete(new FileContent(file, length, toHex(md.digest())));
+        } else {
+          content.tryFail(ar.cause());
+          vertx.fileSystem().delete(file);
+        }
+      });
+      if (handler != null) {
+        fut.onComplete(handler);
+      }
+    }
+
+    @Override
+    public ContentWriter setWriteQueueMaxSize(int maxSize) {
+      stream.setWriteQueueMaxSize(maxSize);
+      return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+      return stream.writeQueueFull();
+    }
+
+    @Override
+    public ContentWriter drainHandler(Handler<Void> handler) {
+      stream.drainHandler(handler);
+      return this;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpResponseExpectation;
+import io.vertx.core.http.PoolOptions;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates a synthetic Maven deploy against a proxy.
+ *
+ * Each module deploys its jar, sources jar and pom with their checksums, then rewrites its {@code maven-metadata.xml}
+ * and a {@code maven-metadata.xml} shared by all the modules, one request after the other like the Maven deployer
+ * does. Modules are deployed concurrently. The content only depends on the seed, so a deploy can be replayed.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class DeployStorm {
+
+  private static final String GROUP_PATH = "/org/releaser/storm";
+  private static final String VERSION = "1.0.0";
+
+  /**
+   * The outcome of a deploy, latencies are in microseconds.
+   */
+  public static class Report {
+
+    public final int modules;
+    public final int requests;
+    public final long bytes;
+    public final long ingestTime;
+    public final long drainTime;
+    public final LatencyHistogram latency;
+
+    Report(int modules, int requests, long bytes, long ingestTime, long drainTime, LatencyHistogram latency) {
+      this.modules = modules;
+      this.requests = requests;
+      this.bytes = bytes;
+      this.ingestTime = ingestTime;
+      this.drainTime = drainTime;
+      this.latency = latency;
+    }
+
+    @Override
+    public String toString() {
+      double mb = bytes / (1024D * 1024D);
+      return "Deployed " + modules + " modules with " + requests + " requests (" + String.format("%.1f", mb) + " MB)\n" +
+        "Ingest latency p50=" + latency.getValueAtQuantile(0.5D) / 1000D + "ms p99=" + latency.getValueAtQuantile(0.99D) / 1000D +
+        "ms p999=" + latency.getValueAtQuantile(0.999D) / 1000D + "ms max=" + latency.getMax() / 1000D + "ms\n" +
+        "Ingest time " + ingestTime + "ms (" + String.format("%.1f", mb * 1000 / Math.max(1, ingestTime)) + " MB/s)\n" +
+        "Drain time " + drainTime + "ms (" + String.format("%.1f", mb * 1000 / Math.max(1, ingestTime + drainTime)) + " MB/s end to end)";
+    }
+  }
+
+  private final Vertx vertx;
+  private final String host;
+  private final int port;
+  private int modules = 300;
+  private int concurrency = 16;
+  private int minJarSize = 4 * 1024;
+  private int maxJarSize = 4 * 1024 * 1024;
+  private long seed;
+
+  public DeployStorm(Vertx vertx, String host, int port) {
+    this.vertx = vertx;
+    this.host = host;
+    this.port = port;
+  }
+
+  public DeployStorm setModules(int modules) {
+    this.modules = modules;
+    return this;
+  }
+
+  /**
+   * Set the number of modules deployed concurrently.
+   */
+  public DeployStorm setConcurrency(int concurrency) {
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  /**
+   * Set the jar sizes bounds, the jar sizes follow a log-uniform distribution between these bounds, the sources jars
+   * are a third of the jars.
+   */
+  public DeployStorm setJarSizes(int minJarSize, int maxJarSize) {
+    this.minJarSize = minJarSize;
+    this.maxJarSize = maxJarSize;
+    return this;
+  }
+
+  public DeployStorm setSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Run the deploy, then wait until the proxy is drained.
+   */
+  public Future<Report> run() {
+    HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+      .setDefaultHost(host)
+      .setDefaultPort(port)
+      .setKeepAlive(true), new PoolOptions().setHttp1MaxSize(concurrency));
+    Session session = new Session(client);
+    long start = System.currentTimeMillis();
+    List<Future<Void>> workers = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      workers.add(session.work());
+    }
+    return Future.all(workers)
+      .compose(v -> {
+        long ingested = System.currentTimeMillis();
+        return client.request(HttpMethod.GET, Proxy.DRAIN_PATH)
+          .compose(request -> request
+            .send()
+            .expecting(HttpResponseExpectation.SC_OK))
+          .map(resp -> new Report(modules, session.requests.get(), session.bytes.get(), ingested - start,
+            System.currentTimeMillis() - ingested, session.latency));
+      })
+      .eventually(() -> client.close());
+  }
+
+  private class Session {
+
+    final HttpClient client;
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicInteger rewrites = new AtomicInteger();
+    final AtomicInteger next = new AtomicInteger();
+
+    Session(HttpClient client) {
+      this.client = client;
+    }
+
+    Future<Void> work() {
+      int module = next.getAndIncrement();
+      if (module >= modules) {
+        return Future.succeededFuture();
+      }
+      return deploy(module).compose(v -> work());
+    }
+
+    private Future<Void> deploy(int module) {
+      Random random = new Random(seed * 31 + module);
+      String artifactId = "module-" + module;
+      String base = GROUP_PATH + "/" + artifactId;
+      String prefix = base + "/" + VERSION + "/" + artifactId + "-" + VERSION;
+      int jarSize = (int) Math.exp(Math.log(minJarSize) + random.nextDouble() * (Math.log(maxJarSize) - Math.log(minJarSize)));
+      Future<Void> fut = deployWithChecksums(prefix + ".jar", randomBuffer(random, jarSize));
+      fut = fut.compose(v -> deployWithChecksums(prefix + "-sources.jar", randomBuffer(random, jarSize / 3)));
+      fut = fut.compose(v -> deployWithChecksums(prefix + ".pom", Buffer.buffer("<project>" +
+        "<modelVersion>4.0.0</modelVersion>" +
+        "<groupId>org.releaser.storm</groupId>" +
+        "<artifactId>" + artifactId + "</artifactId>" +
+        "<version>" + VERSION + "</version>" +
+        "</project>")));
+      fut = fut.compose(v -> rewriteMetadata(base + "/maven-metadata.xml", artifactId));
+      return fut.compose(v -> rewriteMetadata(GROUP_PATH + "/maven-metadata.xml", "storm-" + rewrites.incrementAndGet()));
+    }
+
+    private Future<Void> rewriteMetadata(String path, String artifactId) {
+      return client.request(HttpMethod.GET, path)
+        .compose(request -> request.send().compose(HttpClientResponse::body))
+        .compose(previous -> deployWithChecksums(path, Buffer.buffer("<metadata>" +
+          "<groupId>org.releaser.storm</groupId>" +
+          "<artifactId>" + artifactId + "</artifactId>" +
+          "<versioning><release>" + VERSION + "</release><versions><version>" + VERSION + "</version></versions></versioning>" +
+          "</metadata>")));
+    }
+
+    private Future<Void> deployWithChecksums(String path, Buffer content) {
+      return put(path, content)
+        .compose(v -> put(path + ".md5", Buffer.buffer(checksum("MD5", content))))
+        .compose(v -> put(path + ".sha1", Buffer.buffer(checksum("SHA-1", content))));
+    }
+
+    private Future<Void> put(String path, Buffer content) {
+      long begin = System.nanoTime();
+      return client.request(HttpMethod.PUT, path)
+        .compose(request -> request
+          .send(content)
+          .expecting(HttpResponseExpectation.SC_CREATED)
+          .compose(HttpClientResponse::end))
+        .andThen(ar -> {
+          if (ar.succeeded()) {
+            latency.record((System.nanoTime() - begin) / 1000);
+            requests.incrementAndGet();
+            bytes.addAndGet(content.length());
+          }
+        });
+    }
+  }
+
+  private static Buffer randomBuffer(Random random, int length) {
+    byte[] bytes = new byte[Math.max(1, length)];
+    random.nextBytes(bytes);
+    return Buffer.buffer(bytes);
+  }
+
+  private static String checksum(String algorithm, Buffer content) {
+    try {
+      byte[] digest = MessageDigest.getInstance(algorithm).digest(content.getBytes());
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest) {
+        sb.append(String.format("%02x", b & 0xFF));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Vertx;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Stress a running proxy with a synthetic deploy, see {@link DeployStorm}.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+@Mojo(name = "deploy-storm", requiresProject = false)
+public class DeployStormMojo extends AbstractMojo {
+
+  @Parameter(property = "stormHost", defaultValue = "localhost")
+  private String stormHost;
+
+  @Parameter(property = "stormPort", defaultValue = "8080")
+  private int stormPort;
+
+  @Parameter(property = "stormModules", defaultValue = "300")
+  private int stormModules;
+
+  @Parameter(property = "stormConcurrency", defaultValue = "16")
+  private int stormConcurrency;
+
+  @Parameter(property = "stormMinJarSize", defaultValue = "4096")
+  private int stormMinJarSize;
+
+  @Parameter(property = "stormMaxJarSize", defaultValue = "4194304")
+  private int stormMaxJarSize;
+
+  @Parameter(property = "stormSeed", defaultValue = "0")
+  private long stormSeed;
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    Vertx vertx = Vertx.vertx();
+    try {
+      DeployStorm.Report report = new DeployStorm(vertx, stormHost, stormPort)
+        .setModules(stormModules)
+        .setConcurrency(stormConcurrency)
+        .setJarSizes(stormMinJarSize, stormMaxJarSize)
+        .setSeed(stormSeed)
+        .run()
+        .toCompletionStage()
+        .toCompletableFuture()
+        .get();
+      for (String line : report.toString().split("\n")) {
+        getLog().info(line);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted", e);
+    } catch (ExecutionException e) {
+      throw new MojoFailureException("Deploy storm failed", e.getCause());
+    } finally {
+      vertx.close();
+    }
+  }
+}
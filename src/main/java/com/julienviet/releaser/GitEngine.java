@@ -0,0 +1,171 @@
+package com.julienviet.releaser;
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.CommitCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.errors.EmptyCommitException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Commits and tags modules in process with JGit, a repository is opened once and shared by all its modules.
+ *
+ * A repository must only be used by one thread at a time, distinct repositories can be used concurrently.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class GitEngine implements AutoCloseable {
+
+  private static final String POM = "pom.xml";
+
+  private final Map<File, Repository> repositories = new ConcurrentHashMap<>();
+
+  /**
+   * @return the repository of the work tree containing {@code basedir}
+   */
+  public Repository open(File basedir) throws IOException {
+    FileRepositoryBuilder builder = new FileRepositoryBuilder().findGitDir(basedir.getAbsoluteFile());
+    if (builder.getGitDir() == null) {
+      throw new IOException("No git repository found for " + basedir);
+    }
+    File gitDir = builder.getGitDir().getCanonicalFile();
+    Repository repository = repositories.get(gitDir);
+    if (repository == null) {
+      repository = builder.setMustExist(true).build();
+      Repository previous = repositories.putIfAbsent(gitDir, repository);
+      if (previous != null) {
+        repository.close();
+        repository = previous;
+      }
+    }
+    return repository;
+  }
+
+  /**
+   * Group modules by repository, in the order of the modules.
+   */
+  public <T> Map<Repository, List<T>> groupByRepository(Collection<T> modules, Function<T, File> basedir) throws IOException {
+    Map<Repository, List<T>> groups = new LinkedHashMap<>();
+    for (T module : modules) {
+      groups.computeIfAbsent(open(basedir.apply(module)), k -> new ArrayList<>()).add(module);
+    }
+    return groups;
+  }
+
+  /**
+   * Stage the {@code pom.xml} of each module and commit them together, the other changes staged in the repository
+   * are not committed and stay staged.
+   *
+   * The work tree is not scanned again, the modules are usually the ones returned by {@link #modified}.
+   *
+   * @param repository the repository of the modules
+   * @param basedirs the modules directories
+   * @param message the commit message
+   * @return the commit, or {@code null} when none of the poms changed
+   */
+  public ObjectId commit(Repository repository, Collection<File> basedirs, String message) throws Exception {
+    if (basedirs.isEmpty()) {
+      return null;
+    }
+    try (Git git = new Git(repository)) {
+      AddCommand add = git.add();
+      CommitCommand commit = git.commit();
+      for (File basedir : basedirs) {
+        String path = path(repository, new File(basedir, POM));
+        add.addFilepattern(path);
+        commit.setOnly(path);
+      }
+      add.call();
+      return commit
+        .setMessage(message)
+        .setAllowEmpty(false)
+        .call()
+        .getId();
+    } catch (EmptyCommitException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Scan the work tree of a repository once for the modules whose {@code pom.xml} is modified, staged or untracked.
+   *
+   * @param repository the repository of the modules
+   * @param basedirs the modules directories
+   * @return the directories of the modified modules
+   */
+  public Set<File> modified(Repository repository, Collection<File> basedirs) throws Exception {
+    Map<String, File> poms = new HashMap<>();
+    for (File basedir : basedirs) {
+      poms.put(path(repository, new File(basedir, POM)), basedir);
+    }
+    Set<File> modified = new HashSet<>();
+    if (poms.isEmpty()) {
+      return modified;
+    }
+    try (Git git = new Git(repository)) {
+      StatusCommand command = git.status();
+      poms.keySet().forEach(command::addPath);
+      Status status = command.call();
+      for (Set<String> paths : Arrays.asList(status.getAdded(), status.getChanged(), status.getModified(), status.getUntracked())) {
+        for (String path : paths) {
+          File basedir = poms.get(path);
+          if (basedir != null) {
+            modified.add(basedir);
+          }
+        }
+      }
+    }
+    return modified;
+  }
+
+  /**
+   * Create an annotated tag on the head of a repository.
+   *
+   * @return the tag ref
+   */
+  public Ref tag(Repository repository, String name, String message) throws Exception {
+    try (Git git = new Git(repository)) {
+      return git.tag()
+        .setName(name)
+        .setMessage(message)
+        .setAnnotated(true)
+        .call();
+    }
+  }
+
+  /**
+   * @return the path of {@code file} in the work tree of {@code repository}
+   */
+  static String path(Repository repository, File file) throws IOException {
+    String workTree = repository.getWorkTree().getCanonicalPath();
+    String path = file.getCanonicalPath();
+    if (path.equals(workTree) || !path.startsWith(workTree + File.separator)) {
+      throw new IOException(file + " is not in the work tree " + workTree);
+    }
+    return path.substring(workTree.length() + 1).replace(File.separatorChar, '/');
+  }
+
+  @Override
+  public void close() {
+    repositories.values().forEach(Repository::close);
+    repositories.clear();
+  }
+}
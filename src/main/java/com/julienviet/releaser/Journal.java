@@ -0,0 +1,364 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only journal of the resources accepted by the proxy, so uploads can be resumed after a restart.
+ *
+ * Each line is a tab separated record:
+ *
+ * <ul>
+ *   <li>{@code STAGING profileId repositoryId}: the staging repository of a profile has been created</li>
+ *   <li>{@code PUT path file length digest}: a resource has been accepted</li>
+ *   <li>{@code UPLOADED path digest}: a resource has been uploaded</li>
+ *   <li>{@code CHECKPOINT}: the uploaded resources are retired, and so are the staging repositories when no resource
+ *   is left</li>
+ * </ul>
+ *
+ * Appends are batched, a batch is durable after the content files it references and the journal are synced. The
+ * journal can be appended from several event loops, an append is completed on the context that appended it.
+ *
+ * The journal is compacted when it is opened and when it holds many more lines than records: the latest state of each
+ * record is written to a new file that atomically replaces the journal. Compacting when it is opened also drops the
+ * torn last line left by a crash, so the next append starts on a new line.
+ *
+ * The content files of the retired resources are deleted when the journal is closed, so they can still be served
+ * until then.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class Journal {
+
+  static final String FILE_NAME = "journal.log";
+
+  /**
+   * The minimum number of lines before the journal is compacted.
+   */
+  static final int COMPACTION_THRESHOLD = 1024;
+
+  static class Record {
+
+    final String path;
+    String file;
+    long length;
+    String digest;
+    String uploadedDigest;
+
+    Record(String path) {
+      this.path = path;
+    }
+  }
+
+  private static class Entry {
+
+    final String line;
+    final String file;
+    final Context context;
+    final Promise<Void> promise = Promise.promise();
+
+    Entry(String line, String file, Context context) {
+      this.line = line;
+      this.file = file;
+      this.context = context;
+    }
+  }
+
+  private final Vertx vertx;
+  private final long syncInterval;
+  private final File file;
+  private final Map<String, Record> records = new LinkedHashMap<>();
+  private final Map<String, String> repositories = new LinkedHashMap<>();
+  // The state of the lines written so far, only accessed by the flush in progress
+  private final Map<String, Record> liveRecords = new LinkedHashMap<>();
+  private final Map<String, String> liveRepositories = new LinkedHashMap<>();
+  // The content files of the records retired by a checkpoint
+  private final List<String> retired = new ArrayList<>();
+  private FileChannel channel;
+  private int lines;
+  private List<Entry> pending = new ArrayList<>();
+  private boolean flushing;
+  private Promise<Void> closed;
+
+  /**
+   * Open the journal in {@code directory} and read the records it contains, this is a blocking operation.
+   */
+  Journal(Vertx vertx, String directory, long syncInterval) throws IOException {
+    this.file = new File(directory, FILE_NAME);
+    Files.createDirectories(file.getParentFile().toPath());
+    this.vertx = vertx;
+    this.syncInterval = syncInterval;
+    read();
+    // Retired by a checkpoint written before the last run ended
+    for (String retiredFile : retired) {
+      Files.deleteIfExists(new File(retiredFile).toPath());
+    }
+    retired.clear();
+    compact();
+  }
+
+  private void read() throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    boolean torn = false;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      if (raf.length() > 0) {
+        raf.seek(raf.length() - 1);
+        torn = raf.read() != '\n';
+      }
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      while (line != null) {
+        String next = reader.readLine();
+        // A torn line can only be the last one, it is ignored
+        if (next != null || !torn) {
+          apply(line, records, repositories, retired);
+        }
+        line = next;
+      }
+    }
+    for (Record record : records.values()) {
+      liveRecords.put(record.path, copy(record));
+    }
+    liveRepositories.putAll(repositories);
+  }
+
+  private static void apply(String line, Map<String, Record> records, Map<String, String> repositories, List<String> retired) {
+    String[] fields = line.split("\t");
+    if (fields[0].equals("STAGING") && fields.length == 3) {
+      repositories.put(fields[1], fields[2]);
+    } else if (fields[0].equals("PUT") && fields.length == 5) {
+      Record record = records.computeIfAbsent(fields[1], Record::new);
+      record.file = fields[2];
+      record.length = Long.parseLong(fields[3]);
+      record.digest = fields[4];
+    } else if (fields[0].equals("UPLOADED") && fields.length == 3) {
+      Record record = records.get(fields[1]);
+      if (record != null) {
+        record.uploadedDigest = fields[2];
+      }
+    } else if (fields[0].equals("CHECKPOINT")) {
+      Iterator<Record> it = records.values().iterator();
+      while (it.hasNext()) {
+        Record record = it.next();
+        if (record.digest.equals(record.uploadedDigest)) {
+          it.remove();
+          retired.add(record.file);
+        }
+      }
+      if (records.isEmpty()) {
+        repositories.clear();
+      }
+    }
+  }
+
+  private static Record copy(Record record) {
+    Record copy = new Record(record.path);
+    copy.file = record.file;
+    copy.length = record.length;
+    copy.digest = record.digest;
+    copy.uploadedDigest = record.uploadedDigest;
+    return copy;
+  }
+
+  /**
+   * Replace the journal with the latest state of its records, this is a blocking operation.
+   */
+  private void compact() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int count = 0;
+    for (Map.Entry<String, String> repository : liveRepositories.entrySet()) {
+      sb.append("STAGING\t").append(repository.getKey()).append('\t').append(repository.getValue()).append('\n');
+      count++;
+    }
+    for (Record record : liveRecords.values()) {
+      sb.append("PUT\t").append(record.path).append('\t').append(record.file).append('\t').append(record.length)
+        .append('\t').append(record.digest).append('\n');
+      count++;
+      if (record.uploadedDigest != null) {
+        sb.append("UPLOADED\t").append(record.path).append('\t').append(record.uploadedDigest).append('\n');
+        count++;
+      }
+    }
+    File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+    try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      write(out, sb.toString());
+      out.force(false);
+    }
+    if (channel != null) {
+      channel.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    lines = count;
+  }
+
+  private static void write(FileChannel channel, String s) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * @return the staging repository recorded for {@code profileId} or {@code null}
+   */
+  String getRepositoryId(String profileId) {
+    return repositories.get(profileId);
+  }
+
+  /**
+   * @return the records read when the journal was opened
+   */
+  Map<String, Record> getRecords() {
+    return records;
+  }
+
+  Future<Void> staging(String profileId, String repositoryId) {
+    return append("STAGING\t" + profileId + "\t" + repositoryId, null);
+  }
+
+  /**
+   * Record an accepted resource, a resource held in memory is not durable and is not recorded.
+   */
+  Future<Void> accepted(String path, ResourceStore.Content content) {
+    if (content.file() == null) {
+      return Future.succeededFuture();
+    }
+    return append("PUT\t" + path + "\t" + content.file() + "\t" + content.length() + "\t" + content.digest(), content.file());
+  }
+
+  Future<Void> uploaded(String path, String digest) {
+    return append("UPLOADED\t" + path + "\t" + digest, null);
+  }
+
+  /**
+   * Retire the resources uploaded so far, a later run does not resume them nor reattach to their staging repository.
+   */
+  Future<Void> checkpoint() {
+    return append("CHECKPOINT", null);
+  }
+
+  private synchronized Future<Void> append(String line, String file) {
+    if (closed != null) {
+      return Future.failedFuture(new IllegalStateException("Journal closed"));
+    }
+    Entry entry = new Entry(line, file, vertx.getOrCreateContext());
+    pending.add(entry);
+    if (!flushing) {
+      flushing = true;
+      if (syncInterval > 0) {
+        vertx.setTimer(syncInterval, id -> flush());
+      } else {
+        vertx.runOnContext(v -> flush());
+      }
+    }
+    return entry.promise.future();
+  }
+
+  private void flush() {
+    List<Entry> batch;
+    synchronized (this) {
+      batch = pending;
+      pending = new ArrayList<>();
+    }
+    vertx.<Void>executeBlocking(() -> {
+      StringBuilder sb = new StringBuilder();
+      for (Entry entry : batch) {
+        if (entry.file != null) {
+          try (FileChannel content = FileChannel.open(new File(entry.file).toPath(), StandardOpenOption.READ)) {
+            content.force(true);
+          } catch (NoSuchFileException ignore) {
+            // Released meanwhile
+          }
+        }
+        sb.append(entry.line).append('\n');
+      }
+      write(channel, sb.toString());
+      channel.force(false);
+      int count = retired.size();
+      for (Entry entry : batch) {
+        apply(entry.line, liveRecords, liveRepositories, retired);
+      }
+      lines += batch.size();
+      // Truncate the journal as soon as resources are retired
+      if (retired.size() > count || lines >= Math.max(COMPACTION_THRESHOLD, 2 * (liveRecords.size() + liveRepositories.size()))) {
+        compact();
+      }
+      return null;
+    }).onComplete(ar -> {
+      for (Entry entry : batch) {
+        if (entry.context == Vertx.currentContext()) {
+          entry.promise.handle(ar);
+        } else {
+          entry.context.runOnContext(v -> entry.promise.handle(ar));
+        }
+      }
+      boolean more;
+      Promise<Void> closing;
+      synchronized (this) {
+        more = !pending.isEmpty();
+        flushing = more;
+        closing = more ? null : closed;
+      }
+      if (more) {
+        flush();
+      } else if (closing != null) {
+        closeChannel(closing);
+      }
+    });
+  }
+
+  /**
+   * Close the journal once the appends in progress are written, further appends fail.
+   */
+  Future<Void> close() {
+    Promise<Void> promise;
+    boolean idle;
+    synchronized (this) {
+      if (closed != null) {
+        return closed.future();
+      }
+      promise = closed = Promise.promise();
+      idle = !flushing;
+    }
+    if (idle) {
+      closeChannel(promise);
+    }
+    return promise.future();
+  }
+
+  private void closeChannel(Promise<Void> promise) {
+    try {
+      channel.close();
+    } catch (IOException ignore) {
+    }
+    List<Future<Void>> deleted = new ArrayList<>();
+    for (String retiredFile : retired) {
+      // Superseded contents are already deleted
+      deleted.add(vertx.fileSystem().delete(retiredFile).otherwiseEmpty());
+    }
+    Future.all(deleted).<Void>mapEmpty().onComplete(promise);
+  }
+}
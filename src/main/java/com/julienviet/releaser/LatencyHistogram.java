@@ -0,0 +1,87 @@
+package com.julienviet.releaser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log-linear histogram in the HDR style: each power of two range is split in 16 linear buckets, so percentiles are
+ * reported with a relative error below 6.25% for any value, with a fixed footprint and without allocating on record.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  static int index(long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+  }
+
+  static long lowest(int index) {
+    if (index < SUB_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_COUNT - 1;
+    return (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+  }
+
+  /**
+   * Record a value, negative values are recorded as zero.
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts.incrementAndGet(index(value));
+    count.increment();
+    sum.add(value);
+    long m;
+    while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param quantile the quantile between {@code 0} and {@code 1}
+   * @return the highest value of the bucket containing the quantile, bounded by the max recorded value
+   */
+  public long getValueAtQuantile(double quantile) {
+    long total = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(quantile * total));
+    long cumulated = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      cumulated += counts.get(i);
+      if (cumulated >= target) {
+        long highest = i + 1 < counts.length() ? lowest(i + 1) - 1 : Long.MAX_VALUE;
+        return Math.min(highest, max.get());
+      }
+    }
+    return max.get();
+  }
+}
@@ -0,0 +1,213 @@
+package com.julienviet.releaser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Runs a task for each module of a dependency graph on a bounded pool of workers.
+ *
+ * A module starts as soon as the modules it depends on are done, modules without dependencies between them run
+ * in parallel. When the task of a module fails, the modules depending on it are skipped and the other modules
+ * carry on.
+ *
+ * Without workers the modules run one after the other on the calling thread, in the same order and with the same
+ * failure handling.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class ModuleExecutor<T> {
+
+  interface Task<T> {
+    void execute(T module) throws Exception;
+  }
+
+  /**
+   * The outcome of an execution, in the order of the modules.
+   */
+  static class Result<T> {
+
+    final List<T> succeeded = new ArrayList<>();
+    final Map<T, Throwable> failed = new LinkedHashMap<>();
+    final List<T> skipped = new ArrayList<>();
+
+    boolean isSuccess() {
+      return failed.isEmpty() && skipped.isEmpty();
+    }
+  }
+
+  private enum Status {
+    PENDING, RUNNING, SUCCEEDED, FAILED, SKIPPED
+  }
+
+  private class Node {
+
+    final T module;
+    final List<Node> downstream = new ArrayList<>();
+    int pending;
+    Status status = Status.PENDING;
+    Throwable failure;
+
+    Node(T module) {
+      this.module = module;
+    }
+  }
+
+  private final int threads;
+  private int remaining;
+
+  /**
+   * @param threads the number of workers, {@code 0} runs the modules on the calling thread
+   */
+  ModuleExecutor(int threads) {
+    this.threads = Math.max(0, threads);
+  }
+
+  /**
+   * Execute {@code task} for each module.
+   *
+   * @param modules the modules
+   * @param upstream the modules a module depends on, those not in {@code modules} are ignored
+   * @param task the task
+   * @return the outcome per module
+   */
+  Result<T> execute(List<T> modules, Function<T, Collection<T>> upstream, Task<T> task) throws InterruptedException {
+    Map<T, Node> nodes = new LinkedHashMap<>();
+    for (T module : modules) {
+      nodes.put(module, new Node(module));
+    }
+    for (Node node : nodes.values()) {
+      for (T dep : upstream.apply(node.module)) {
+        Node depNode = nodes.get(dep);
+        if (depNode != null && depNode != node) {
+          depNode.downstream.add(node);
+          node.pending++;
+        }
+      }
+    }
+    checkAcyclic(nodes.values());
+    ExecutorService pool = null;
+    Deque<Runnable> queue = null;
+    Executor executor;
+    if (threads > 0) {
+      pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, nodes.size())));
+      executor = pool;
+    } else {
+      // Only the calling thread submits and runs the modules
+      queue = new ArrayDeque<>();
+      executor = queue::add;
+    }
+    try {
+      synchronized (this) {
+        remaining = nodes.size();
+        for (Node node : nodes.values()) {
+          if (node.pending == 0) {
+            submit(executor, node, task);
+          }
+        }
+      }
+      if (queue != null) {
+        Runnable next;
+        while ((next = queue.poll()) != null) {
+          next.run();
+        }
+      }
+      synchronized (this) {
+        while (remaining > 0) {
+          wait();
+        }
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+    Result<T> result = new Result<>();
+    for (Node node : nodes.values()) {
+      switch (node.status) {
+        case SUCCEEDED:
+          result.succeeded.add(node.module);
+          break;
+        case FAILED:
+          result.failed.put(node.module, node.failure);
+          break;
+        default:
+          result.skipped.add(node.module);
+          break;
+      }
+    }
+    return result;
+  }
+
+  private void submit(Executor executor, Node node, Task<T> task) {
+    node.status = Status.RUNNING;
+    executor.execute(() -> {
+      Throwable failure = null;
+      try {
+        task.execute(node.module);
+      } catch (Throwable t) {
+        failure = t;
+      }
+      synchronized (ModuleExecutor.this) {
+        remaining--;
+        if (failure == null) {
+          node.status = Status.SUCCEEDED;
+          for (Node next : node.downstream) {
+            if (--next.pending == 0 && next.status == Status.PENDING) {
+              submit(executor, next, task);
+            }
+          }
+        } else {
+          node.status = Status.FAILED;
+          node.failure = failure;
+          skip(node.downstream);
+        }
+        ModuleExecutor.this.notifyAll();
+      }
+    });
+  }
+
+  private void skip(List<Node> nodes) {
+    for (Node node : nodes) {
+      if (node.status == Status.PENDING) {
+        node.status = Status.SKIPPED;
+        remaining--;
+        skip(node.downstream);
+      }
+    }
+  }
+
+  private void checkAcyclic(Collection<Node> nodes) {
+    // Kahn's algorithm, the nodes left with pending dependencies are part of a cycle
+    Map<Node, Integer> pending = new HashMap<>();
+    List<Node> ready = new ArrayList<>();
+    for (Node node : nodes) {
+      pending.put(node, node.pending);
+      if (node.pending == 0) {
+        ready.add(node);
+      }
+    }
+    int visited = 0;
+    while (!ready.isEmpty()) {
+      Node node = ready.remove(ready.size() - 1);
+      visited++;
+      for (Node next : node.downstream) {
+        if (pending.merge(next, -1, Integer::sum) == 0) {
+          ready.add(next);
+        }
+      }
+    }
+    if (visited < nodes.size()) {
+      throw new IllegalArgumentException("The module dependencies contain a cycle");
+    }
+  }
+}
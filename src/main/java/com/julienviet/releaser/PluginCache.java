@@ -0,0 +1,82 @@
+package com.julienviet.releaser;
+
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomUtils;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the plugin descriptors loaded by the releaser mojos and the default configuration of their mojos, keyed by
+ * plugin coordinates, so a plugin is loaded once per session instead of once per module.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class PluginCache {
+
+  private static final Object KEY = PluginCache.class.getName();
+
+  public interface Loader {
+    PluginDescriptor load(Plugin plugin) throws Exception;
+  }
+
+  /**
+   * @return the cache of a session, shared by all the mojos of the session
+   */
+  public static PluginCache get(RepositorySystemSession session) {
+    SessionData data = session.getData();
+    while (true) {
+      PluginCache cache = (PluginCache) data.get(KEY);
+      if (cache != null) {
+        return cache;
+      }
+      cache = new PluginCache();
+      if (data.set(KEY, null, cache)) {
+        return cache;
+      }
+    }
+  }
+
+  private final ConcurrentMap<String, PluginDescriptor> descriptors = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Xpp3Dom> templates = new ConcurrentHashMap<>();
+
+  /**
+   * @return the descriptor of a plugin, loaded with {@code loader} the first time
+   */
+  public PluginDescriptor descriptor(String groupId, String artifactId, String version, Loader loader) throws Exception {
+    String key = groupId + ":" + artifactId + ":" + version;
+    PluginDescriptor descriptor = descriptors.get(key);
+    if (descriptor == null) {
+      Plugin plugin = new Plugin();
+      plugin.setGroupId(groupId);
+      plugin.setArtifactId(artifactId);
+      plugin.setVersion(version);
+      // Concurrent loads are harmless, the plugin manager caches the resolution too
+      descriptor = loader.load(plugin);
+      PluginDescriptor previous = descriptors.putIfAbsent(key, descriptor);
+      if (previous != null) {
+        descriptor = previous;
+      }
+    }
+    return descriptor;
+  }
+
+  /**
+   * Create the execution of a goal with {@code configuration} merged over the default configuration of the goal.
+   */
+  public MojoExecution execution(PluginDescriptor plugin, String goal, Xpp3Dom configuration) {
+    MojoDescriptor mojo = plugin.getMojo(goal);
+    if (mojo == null) {
+      throw new IllegalArgumentException("No goal " + goal + " in " + plugin.getId());
+    }
+    Xpp3Dom template = templates.computeIfAbsent(plugin.getId() + ":" + goal, key -> AbstractReleaserMojo.toXpp3Dom(mojo.getMojoConfiguration()));
+    // The merged configuration must not share nodes with the template
+    return new MojoExecution(mojo, Xpp3DomUtils.mergeXpp3Dom(configuration, new Xpp3Dom(template)));
+  }
+}
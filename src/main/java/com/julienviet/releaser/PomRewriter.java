@@ -0,0 +1,301 @@
+package com.julienviet.releaser;
+
+import org.codehaus.plexus.interpolation.InterpolationException;
+import org.codehaus.plexus.interpolation.Interpolator;
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.codehaus.plexus.interpolation.StringSearchInterpolator;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the versions of a POM in a single pass over its text, only the version values change, the formatting,
+ * comments and everything else are preserved.
+ *
+ * The versions of the project, of its parent and of the dependencies, plugins and extensions whose coordinates are
+ * mapped are rewritten. Group ids referencing properties like {@code ${project.groupId}} are interpolated, versions
+ * referencing properties are left untouched.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class PomRewriter {
+
+  private static final Pattern ENCODING = Pattern.compile("^\\s*<\\?xml[^>]*encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+  private static class Coordinates {
+
+    final String kind;
+    String groupId;
+    String artifactId;
+    String version;
+    int versionStart = -1;
+    int versionEnd;
+
+    Coordinates(String kind) {
+      this.kind = kind;
+    }
+  }
+
+  private static class Change {
+
+    final int start;
+    final int end;
+    final String value;
+
+    Change(int start, int end, String value) {
+      this.start = start;
+      this.end = end;
+      this.value = value;
+    }
+  }
+
+  private static class Element {
+
+    final String name;
+    final int textStart;
+    final Coordinates coordinates;
+    boolean hasChildren;
+
+    Element(String name, int textStart, Coordinates coordinates) {
+      this.name = name;
+      this.textStart = textStart;
+      this.coordinates = coordinates;
+    }
+  }
+
+  private final Map<String, String> versions;
+
+  /**
+   * @param versions the new versions keyed by {@code groupId:artifactId}
+   */
+  public PomRewriter(Map<String, String> versions) {
+    this.versions = versions;
+  }
+
+  /**
+   * Rewrite a POM file, the file is replaced atomically and only when a version changed, its permissions are kept.
+   *
+   * @param pom the POM file
+   * @param properties the properties used to interpolate the group ids
+   * @return the number of rewritten versions
+   */
+  public int rewrite(Path pom, Properties properties) throws IOException {
+    byte[] bytes = Files.readAllBytes(pom);
+    Charset charset = charset(bytes);
+    String content = new String(bytes, charset);
+    List<Change> changes = new ArrayList<>();
+    String rewritten = rewrite(content, properties, changes);
+    if (changes.isEmpty()) {
+      return 0;
+    }
+    Path tmp = Files.createTempFile(pom.toAbsolutePath().getParent(), pom.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tmp, rewritten.getBytes(charset));
+      // The temporary file is created owner only, the rewritten POM keeps the permissions of the original
+      PosixFileAttributeView view = Files.getFileAttributeView(pom, PosixFileAttributeView.class);
+      if (view != null) {
+        Files.setPosixFilePermissions(tmp, view.readAttributes().permissions());
+      }
+      try {
+        Files.move(tmp, pom, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, pom, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    return changes.size();
+  }
+
+  /**
+   * Rewrite the text of a POM.
+   *
+   * @param pom the POM
+   * @param properties the properties used to interpolate the group ids
+   * @return the rewritten POM
+   */
+  public String rewrite(String pom, Properties properties) {
+    return rewrite(pom, properties, new ArrayList<>());
+  }
+
+  private String rewrite(String pom, Properties properties, List<Change> changes) {
+    Interpolator interpolator = new StringSearchInterpolator();
+    interpolator.addValueSource(new PropertiesBasedValueSource(properties));
+    Deque<Element> stack = new ArrayDeque<>();
+    String parentGroupId = null;
+    int len = pom.length();
+    int pos = 0;
+    while (true) {
+      int tagStart = pom.indexOf('<', pos);
+      if (tagStart == -1) {
+        break;
+      }
+      if (pom.startsWith("<!--", tagStart)) {
+        pos = skip(pom, tagStart, "-->");
+      } else if (pom.startsWith("<![CDATA[", tagStart)) {
+        pos = skip(pom, tagStart, "]]>");
+      } else if (pom.startsWith("<?", tagStart)) {
+        pos = skip(pom, tagStart, "?>");
+      } else if (pom.startsWith("<!", tagStart)) {
+        pos = skip(pom, tagStart, ">");
+      } else if (pom.startsWith("</", tagStart)) {
+        pos = skip(pom, tagStart, ">");
+        if (stack.isEmpty()) {
+          throw new IllegalArgumentException("Unexpected end tag at " + tagStart);
+        }
+        Element element = stack.pop();
+        Element owner = stack.peek();
+        if (!element.hasChildren && owner != null && owner.coordinates != null) {
+          String text = pom.substring(element.textStart, tagStart);
+          if (text.indexOf('<') == -1) {
+            Coordinates coordinates = owner.coordinates;
+            String value = text.trim();
+            switch (element.name) {
+              case "groupId":
+                coordinates.groupId = interpolate(interpolator, value);
+                break;
+              case "artifactId":
+                coordinates.artifactId = interpolate(interpolator, value);
+                break;
+              case "version":
+                coordinates.version = value;
+                coordinates.versionStart = element.textStart + text.indexOf(value);
+                coordinates.versionEnd = coordinates.versionStart + value.length();
+                break;
+            }
+          }
+        }
+        Coordinates coordinates = element.coordinates;
+        if (coordinates != null) {
+          String groupId = coordinates.groupId;
+          if (groupId == null) {
+            switch (coordinates.kind) {
+              case "project":
+                groupId = parentGroupId;
+                break;
+              case "plugin":
+                groupId = "org.apache.maven.plugins";
+                break;
+            }
+          }
+          if (coordinates.kind.equals("parent")) {
+            parentGroupId = groupId;
+          }
+          String version = versions.get(groupId + ":" + coordinates.artifactId);
+          if (version != null && coordinates.versionStart != -1 && !coordinates.version.contains("${") && !version.equals(coordinates.version)) {
+            changes.add(new Change(coordinates.versionStart, coordinates.versionEnd, escape(version)));
+          }
+        }
+      } else {
+        int nameEnd = tagStart + 1;
+        while (nameEnd < len && !Character.isWhitespace(pom.charAt(nameEnd)) && pom.charAt(nameEnd) != '>' && pom.charAt(nameEnd) != '/') {
+          nameEnd++;
+        }
+        String name = pom.substring(tagStart + 1, nameEnd);
+        int tagEnd = tagEnd(pom, nameEnd);
+        Element owner = stack.peek();
+        if (owner != null) {
+          owner.hasChildren = true;
+        }
+        pos = tagEnd + 1;
+        if (pom.charAt(tagEnd - 1) != '/') {
+          stack.push(new Element(name, pos, coordinates(name, stack.size())));
+        }
+      }
+    }
+    if (changes.isEmpty()) {
+      return pom;
+    }
+    // The changes are recorded when their enclosing element ends, the project version comes last
+    changes.sort(Comparator.comparingInt(change -> change.start));
+    StringBuilder sb = new StringBuilder(pom.length() + 16 * changes.size());
+    int from = 0;
+    for (Change change : changes) {
+      sb.append(pom, from, change.start).append(change.value);
+      from = change.end;
+    }
+    return sb.append(pom, from, len).toString();
+  }
+
+  private static Coordinates coordinates(String name, int depth) {
+    switch (name) {
+      case "project":
+        return depth == 0 ? new Coordinates(name) : null;
+      case "parent":
+        return depth == 1 ? new Coordinates(name) : null;
+      case "dependency":
+      case "plugin":
+      case "extension":
+        return new Coordinates(name);
+      default:
+        return null;
+    }
+  }
+
+  private static int skip(String pom, int from, String end) {
+    int idx = pom.indexOf(end, from);
+    if (idx == -1) {
+      throw new IllegalArgumentException("Unterminated markup at " + from);
+    }
+    return idx + end.length();
+  }
+
+  private static int tagEnd(String pom, int from) {
+    char quote = 0;
+    for (int i = from; i < pom.length(); i++) {
+      char c = pom.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unterminated tag at " + from);
+  }
+
+  private static String interpolate(Interpolator interpolator, String value) {
+    if (value.contains("${")) {
+      try {
+        return interpolator.interpolate(value);
+      } catch (InterpolationException e) {
+        return value;
+      }
+    }
+    return value;
+  }
+
+  private static String escape(String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  private static Charset charset(byte[] bytes) {
+    Matcher matcher = ENCODING.matcher(new String(bytes, 0, Math.min(bytes.length, 256), StandardCharsets.ISO_8859_1));
+    if (matcher.find()) {
+      try {
+        return Charset.forName(matcher.group(1));
+      } catch (IllegalArgumentException ignore) {
+        // Fallback on the default
+      }
+    }
+    return StandardCharsets.UTF_8;
+  }
+}
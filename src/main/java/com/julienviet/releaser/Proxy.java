@@ -3,11 +3,55 @@ package com.julienviet.releaser;
 import io.vertx.core.*;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.*;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class Proxy extends AbstractVerticle {
 
+  /**
+   * Waits until all the uploads are done, see {@link #drain()}, answers {@code 500} when uploads were abandoned.
+   */
+  public static final String DRAIN_PATH = "/_releaser/drain";
+
+  /**
+   * Exposes the {@link ProxyMetrics} in the Prometheus text format when enabled.
+   */
+  public static final String METRICS_PATH = "/_releaser/metrics";
+
+  /**
+   * Exposes the upload timeline in the Chrome trace event format when tracing is enabled.
+   */
+  public static final String TRACE_PATH = "/_releaser/trace";
+
+  /**
+   * Routes {@code /profile/<id>/<path>} to the staging profile {@code id} when profile routing is enabled, other paths
+   * are served by the profile of the proxy.
+   */
+  public static final String PROFILE_PATH = "/profile/";
+
+  /**
+   * The maximum size of the head of a streamed body kept in memory until its upstream request is attached, it is not
+   * accounted by the store memory budget.
+   */
+  static final long STREAMING_HEAD_MAX_SIZE = 256 * 1024;
+
   public interface Listener {
 
     Listener DEFAULT = new Listener() {};
@@ -15,11 +59,27 @@ public class Proxy extends AbstractVerticle {
     default void onStagingCreate(String profileId) {}
     default void onStagingSucceded(String profileId, String repoId) {}
     default void onStagingFailed(String profileId, Throwable cause) {}
+    default void onResourceReceived(String uri, long bytes) {}
+    default void onResourceQueued(String uri, long bytes) {}
     default void onResourceCreate(String uri) {}
+    default void onResourceSending(String uri, String connection) {}
+    default void onResourceResponse(String uri, int status) {}
     default void onResourceSucceeded(String uri) {}
     default void onResourceFailed(String uri, Throwable cause) {}
+    default void onResourceRetry(String uri, int attempt, long delay) {}
+    default void onResourceAbandoned(String uri, int attempts) {}
+    default void onResourceDeduplicated(String uri, long bytes) {}
+    default void onConcurrencyChange(int limit) {}
+    default void onCircuitBreakerStateChange(String state) {}
+    default void onAdmissionStateChange(String state) {}
   }
 
+  private final ProxyMetrics metrics = new ProxyMetrics();
+  private final TokenBucket requestBucket;
+  private final TokenBucket bandwidthBucket;
+  private final AdmissionControl admission;
+  private final int admissionRetryAfter;
+  private UploadTracer tracer;
   private Listener listener;
   private String stagingHost;
   private int stagingPort;
@@ -27,35 +87,206 @@ public class Proxy extends AbstractVerticle {
   private boolean stagingPipelining;
   private boolean stagingKeepAlive;
   private int stagingPipeliningLimit;
+  private boolean stagingHttp2;
+  private int stagingHttp2MultiplexingLimit;
   private int stagingMaxPoolSize;
+  private boolean stagingAdaptiveConcurrency;
+  private long stagingIdleTimeout;
   private String stagingProfileId;
   private String stagingUsername;
   private String stagingPassword;
   private int port;
   private String repositoryId;
+  private boolean storeEvictUploaded;
+  private long streamingThreshold;
+  private int retryMaxAttempts;
+  private long retryInitialDelay;
+  private long retryMaxDelay;
+  private double breakerFailureRatio;
+  private int breakerMinRequests;
+  private long breakerOpenDelay;
+  private SchedulingPolicy schedulingPolicy;
+  private boolean schedulingMetadataLast;
+  private int schedulingQueueSize;
+  private String journalDirectory;
+  private long journalSyncInterval;
+  private boolean metricsEndpoint;
+  private boolean profileRouting;
+  private boolean bundleUpload;
+  private String bundleEndpoint;
+  private long bundleMaxSize;
+  private long bundleMaxEntrySize;
+  private long bundleMaxDelay;
+  private String traceFile;
+  private Function<Vertx, ResourceStore> storeFactory;
 
-  private HttpServer server;
+  private int instances;
   private HttpClient client;
-  private Staging staging;
+  private CircuitBreaker breaker;
+  private ResourceStore store;
+  private Journal journal;
+  private Collection<Journal.Record> restored = Collections.emptyList();
+  private final Profile defaultProfile;
+  private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+  private volatile Staging[] shards;
+  private volatile long lastActivity = System.currentTimeMillis();
 
   public Proxy(ProxyOptions options) {
     this(options, Listener.DEFAULT);
   }
 
   public Proxy(ProxyOptions options, Listener listener) {
+    this(options, listener, vertx -> ResourceStore.create(vertx, options));
+  }
+
+  public Proxy(ProxyOptions options, Listener listener, Function<Vertx, ResourceStore> storeFactory) {
     this.stagingHost = options.getStagingHost();
     this.stagingPort = options.getStagingPort();
     this.stagingSsl = options.isStagingSsl();
     this.stagingPipelining = options.isStagingPipelining();
     this.stagingKeepAlive = options.isStagingKeepAlive();
     this.stagingPipeliningLimit = options.getStagingPipeliningLimit();
+    this.stagingHttp2 = options.isStagingHttp2();
+    this.stagingHttp2MultiplexingLimit = options.getStagingHttp2MultiplexingLimit();
     this.stagingMaxPoolSize = options.getStagingMaxPoolSize();
+    this.stagingAdaptiveConcurrency = options.isStagingAdaptiveConcurrency();
+    this.stagingIdleTimeout = options.getStagingIdleTimeout();
+    this.requestBucket = new TokenBucket(options.getStagingRequestRate());
+    this.bandwidthBucket = new TokenBucket(options.getStagingBandwidth());
     this.stagingProfileId = options.getStagingProfileId();
     this.stagingUsername = options.getStagingUsername();
     this.stagingPassword = options.getStagingPassword();
     this.port = options.getPort();
     this.repositoryId = options.getRepositoryId();
-    this.listener = listener;
+    this.storeEvictUploaded = options.isStoreEvictUploaded();
+    this.streamingThreshold = options.getStreamingThreshold();
+    this.retryMaxAttempts = options.getRetryMaxAttempts();
+    this.retryInitialDelay = options.getRetryInitialDelay();
+    this.retryMaxDelay = options.getRetryMaxDelay();
+    this.breakerFailureRatio = options.getBreakerFailureRatio();
+    this.breakerMinRequests = options.getBreakerMinRequests();
+    this.breakerOpenDelay = options.getBreakerOpenDelay();
+    this.schedulingPolicy = options.getSchedulingPolicy();
+    this.schedulingMetadataLast = options.isSchedulingMetadataLast();
+    this.schedulingQueueSize = options.getSchedulingQueueSize();
+    this.journalDirectory = options.getJournalDirectory();
+    this.journalSyncInterval = options.getJournalSyncInterval();
+    this.metricsEndpoint = options.isMetricsEndpoint();
+    this.profileRouting = options.isProfileRouting();
+    this.bundleUpload = options.isBundleUpload();
+    this.bundleEndpoint = options.getBundleEndpoint();
+    this.bundleMaxSize = options.getBundleMaxSize();
+    this.bundleMaxEntrySize = options.getBundleMaxEntrySize();
+    this.bundleMaxDelay = options.getBundleMaxDelay();
+    this.traceFile = options.getTraceFile();
+    this.instances = Math.max(1, options.getInstances());
+    this.storeFactory = storeFactory;
+    if (options.getTraceBufferSize() > 0) {
+      this.tracer = new UploadTracer(options.getTraceBufferSize());
+      this.listener = new Multicast(metrics, tracer, listener);
+    } else {
+      this.listener = new Multicast(metrics, listener);
+    }
+    this.defaultProfile = new Profile(stagingProfileId, "");
+    this.admission = new AdmissionControl(options.getAdmissionHighBytes(), options.getAdmissionLowBytes(),
+      options.getAdmissionHighCount(), options.getAdmissionLowCount(), state -> this.listener.onAdmissionStateChange(state.name()));
+    this.admissionRetryAfter = options.getAdmissionRetryAfter();
+  }
+
+  public ProxyMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the upstream requests per second limit, {@code 0} when unlimited
+   */
+  public double getRequestRate() {
+    return requestBucket.getRate();
+  }
+
+  /**
+   * Set the upstream requests per second limit, {@code 0} is unlimited.
+   */
+  public void setRequestRate(double rate) {
+    requestBucket.setRate(rate);
+  }
+
+  /**
+   * @return the number of upstream requests delayed by the requests per second limit
+   */
+  public long getRequestRateDelayed() {
+    return requestBucket.getDelayed();
+  }
+
+  /**
+   * @return the upstream bytes per second limit, {@code 0} when unlimited
+   */
+  public long getBandwidth() {
+    return (long) bandwidthBucket.getRate();
+  }
+
+  /**
+   * Set the upstream bytes per second limit, {@code 0} is unlimited.
+   */
+  public void setBandwidth(long bandwidth) {
+    bandwidthBucket.setRate(bandwidth);
+  }
+
+  /**
+   * @return the number of upstream requests delayed by the bytes per second limit
+   */
+  public long getBandwidthDelayed() {
+    return bandwidthBucket.getDelayed();
+  }
+
+  /**
+   * @return the number of resources accepted and not yet uploaded
+   */
+  public int getBacklogCount() {
+    return admission.getCount();
+  }
+
+  /**
+   * @return the number of bytes of the resources accepted and not yet uploaded
+   */
+  public long getBacklogBytes() {
+    return admission.getBytes();
+  }
+
+  /**
+   * @return the number of PUT requests whose body is being received or stored
+   */
+  public int getIngestCount() {
+    Staging[] s = shards;
+    int count = 0;
+    if (s != null) {
+      for (Staging shard : s) {
+        count += shard.ingests;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the time of the last PUT request arrival or completion, in milliseconds
+   */
+  public long getLastActivity() {
+    return lastActivity;
+  }
+
+  /**
+   * @return {@code OPEN} or {@code THROTTLED} when the backlog exceeded a high watermark
+   */
+  public String getAdmissionState() {
+    return admission.getState().name();
+  }
+
+  /**
+   * @return the metrics of the uploads of a profile or {@code null} when the profile has not been served
+   */
+  public ProxyMetrics getMetrics(String profileId) {
+    Profile profile = profileId.equals(stagingProfileId) ? defaultProfile : profiles.get(profileId);
+    return profile != null ? profile.metrics : null;
   }
 
   @Override
@@ -69,19 +300,203 @@ public class Proxy extends AbstractVerticle {
     clientOptions.setPipeliningLimit(stagingPipeliningLimit);
     clientOptions.setTrustAll(true);
     PoolOptions poolOptions = new PoolOptions();
-    poolOptions.setHttp1MaxSize(1);
+    poolOptions.setHttp1MaxSize(stagingMaxPoolSize);
+    int maxConcurrency = stagingPipelining ? stagingMaxPoolSize * stagingPipeliningLimit : stagingMaxPoolSize;
+    if (stagingHttp2) {
+      // Negotiated with ALPN over TLS or with an h2c upgrade, the server can still choose HTTP/1.1
+      clientOptions.setProtocolVersion(HttpVersion.HTTP_2);
+      clientOptions.setUseAlpn(stagingSsl);
+      clientOptions.setHttp2ClearTextUpgrade(true);
+      clientOptions.setHttp2ClearTextUpgradeWithPreflightRequest(true);
+      clientOptions.setHttp2MultiplexingLimit(stagingHttp2MultiplexingLimit);
+      poolOptions.setHttp2MaxSize(stagingMaxPoolSize);
+      maxConcurrency = Math.max(maxConcurrency, stagingMaxPoolSize * stagingHttp2MultiplexingLimit);
+    }
     client = vertx.createHttpClient(clientOptions, poolOptions);
-    createStagingRepo()
+    // Shared by the shards, the upstream server is the same
+    breaker = new CircuitBreaker(vertx, breakerFailureRatio, breakerMinRequests, breakerOpenDelay, state -> listener.onCircuitBreakerStateChange(state.name()));
+    int initialConcurrency = slice(stagingMaxPoolSize);
+    int shardMaxConcurrency = slice(maxConcurrency);
+    // The store sets up its directory
+    vertx.executeBlocking(() -> storeFactory.apply(vertx))
       .compose(result -> {
-        staging = result;
-        server = vertx.createHttpServer(new HttpServerOptions().setHandle100ContinueAutomatically(true))
-          .requestHandler(staging::handleRequest);
-        return server.listen(port);
+        store = result;
+        return openJournal();
+      })
+      .compose(v -> {
+        List<Future<String>> repositories = new ArrayList<>();
+        repositories.add(defaultProfile.repository());
+        if (journal != null) {
+          // Reattach the profiles with resources to resume
+          for (Journal.Record record : restored) {
+            Profile profile = profileOf(record.path);
+            if (profile != defaultProfile && journal.getRepositoryId(profile.id) != null) {
+              repositories.add(profile.repository());
+            }
+          }
+        }
+        return Future.all(repositories);
+      })
+      .compose(v -> createShards(initialConcurrency, shardMaxConcurrency))
+      .compose(list -> {
+        shards = list.toArray(new Staging[0]);
+        reportConcurrency();
+        List<Future<Void>> started = new ArrayList<>();
+        for (Staging shard : shards) {
+          started.add(shard.execute(shard::start));
+        }
+        return Future.all(started);
       })
       .<Void>mapEmpty()
       .onComplete(startPromise);
   }
 
+  /**
+   * @return the share of {@code value} of each instance
+   */
+  private int slice(int value) {
+    return Math.max(1, (value + instances - 1) / instances);
+  }
+
+  /**
+   * Create a shard per instance, each shard is bound to its own event loop by a child verticle.
+   */
+  private Future<List<Staging>> createShards(int initialConcurrency, int maxConcurrency) {
+    if (instances == 1) {
+      return Future.succeededFuture(Collections.singletonList(new Staging(context, initialConcurrency, maxConcurrency)));
+    }
+    List<Staging> list = Collections.synchronizedList(new ArrayList<>());
+    return vertx.deployVerticle(() -> new AbstractVerticle() {
+        @Override
+        public void start() {
+          list.add(new Staging(context, initialConcurrency, maxConcurrency));
+        }
+      }, new DeploymentOptions().setInstances(instances))
+      .map(list);
+  }
+
+  /**
+   * @return the profile serving the resource at {@code path}
+   */
+  private Profile profileOf(String path) {
+    if (profileRouting && path.startsWith(PROFILE_PATH)) {
+      int index = path.indexOf('/', PROFILE_PATH.length());
+      if (index > PROFILE_PATH.length()) {
+        return profiles.computeIfAbsent(path.substring(PROFILE_PATH.length(), index), id -> new Profile(id, PROFILE_PATH + id));
+      }
+    }
+    return defaultProfile;
+  }
+
+  private Staging shardOf(String path) {
+    Staging[] s = shards;
+    return s[Math.floorMod(path.hashCode(), s.length)];
+  }
+
+  private void reportConcurrency() {
+    int limit = 0;
+    for (Staging shard : shards) {
+      limit += shard.concurrency;
+    }
+    listener.onConcurrencyChange(limit);
+  }
+
+  @Override
+  public void stop(Promise<Void> stopPromise) {
+    Future<Void> fut = journal != null ? journal.close() : Future.succeededFuture();
+    if (store != null) {
+      fut = fut.eventually(() -> store.close());
+    }
+    fut.onComplete(stopPromise);
+  }
+
+  /**
+   * The outcome of a drain, counted since the proxy started.
+   */
+  public static final class DrainResult {
+
+    /**
+     * The uploads given up after their last attempt.
+     */
+    public final long abandoned;
+
+    /**
+     * The failed upload attempts, including the ones retried with success.
+     */
+    public final long failed;
+
+    DrainResult(long abandoned, long failed) {
+      this.abandoned = abandoned;
+      this.failed = failed;
+    }
+
+    /**
+     * @return whether every upload reached the server
+     */
+    public boolean isSuccess() {
+      return abandoned == 0;
+    }
+
+    @Override
+    public String toString() {
+      return abandoned + " abandoned uploads and " + failed + " failed attempts";
+    }
+  }
+
+  /**
+   * Drain the proxy, a successful drain checkpoints the journal so a later run does not resume the uploaded resources.
+   *
+   * @return a future completed when no PUT is being received and no upload is in progress, queued or waiting for a
+   *         retry
+   */
+  public Future<DrainResult> drain() {
+    Staging[] s = shards;
+    if (s == null) {
+      return Future.failedFuture("Proxy not started");
+    }
+    List<Future<Void>> drained = new ArrayList<>();
+    for (Staging shard : s) {
+      drained.add(shard.execute(shard::drain));
+    }
+    Future<Void> fut = Future.all(drained).mapEmpty();
+    if (tracer != null && traceFile != null) {
+      fut = fut.compose(v -> writeTrace(traceFile).otherwiseEmpty());
+    }
+    return fut.compose(v -> {
+      DrainResult result = new DrainResult(metrics.getAbandoned(), metrics.getFailed());
+      if (journal == null || !result.isSuccess()) {
+        return Future.succeededFuture(result);
+      }
+      // Without a checkpoint a later run reattaches to the staging repository, the drain still succeeded
+      return journal.checkpoint().otherwiseEmpty().map(result);
+    });
+  }
+
+  /**
+   * Write the upload timeline to {@code file} in the Chrome trace event format.
+   */
+  public Future<Void> writeTrace(String file) {
+    if (tracer == null) {
+      return Future.failedFuture("Tracing is not enabled");
+    }
+    return vertx.fileSystem().writeFile(file, tracer.toChromeTrace().toBuffer());
+  }
+
+  /**
+   * Shape the upstream traffic with the request and the bandwidth token buckets.
+   *
+   * @return a future completed when an upstream request of {@code length} bytes can be sent
+   */
+  private Future<Void> shape(long length) {
+    long delay = Math.max(requestBucket.reserve(1), bandwidthBucket.reserve(Math.max(0, length)));
+    if (delay <= 0) {
+      return Future.succeededFuture();
+    }
+    Promise<Void> promise = Promise.promise();
+    vertx.setTimer(Math.max(1L, delay / 1_000_000L), id -> promise.complete());
+    return promise.future();
+  }
+
   private RequestOptions createBaseRequest(HttpMethod method, String uri) {
     RequestOptions request = new RequestOptions();
     request.setMethod(method);
@@ -105,9 +520,22 @@ public class Proxy extends AbstractVerticle {
     return msg.toString();
   }
 
-  private Future<Staging> createStagingRepo() {
-    String requestUri = "/service/local/staging/profiles/" + stagingProfileId + "/start";
-    listener.onStagingCreate(stagingProfileId);
+  private Future<Void> openJournal() {
+    if (journalDirectory == null) {
+      return Future.succeededFuture();
+    }
+    return vertx
+      .executeBlocking(() -> new Journal(vertx, journalDirectory, journalSyncInterval))
+      .map(result -> {
+        journal = result;
+        restored = journal.getRecords().values();
+        return null;
+      });
+  }
+
+  private Future<String> createStagingRepo(String profileId) {
+    String requestUri = "/service/local/staging/profiles/" + profileId + "/start";
+    listener.onStagingCreate(profileId);
     RequestOptions post = createBaseRequest(HttpMethod.POST, requestUri);
     post.putHeader("Content-Type", "application/xml");
     return client.request(post)
@@ -124,92 +552,1067 @@ public class Proxy extends AbstractVerticle {
           int from = content.indexOf("<stagedRepositoryId>");
           int to = content.indexOf("</stagedRepositoryId>");
           if (from != -1 && to != -1) {
-            String repoId = content.substring(from + "<stagedRepositoryId>".length(), to);
-            return new Staging(repoId);
+            return content.substring(from + "<stagedRepositoryId>".length(), to);
           } else {
             throw new VertxException(invalidResponse(HttpMethod.POST, requestUri, 201, body));
           }
-        }));
+        }))
+      .andThen(ar -> {
+        if (ar.succeeded()) {
+          listener.onStagingSucceded(profileId, ar.result());
+        } else {
+          listener.onStagingFailed(profileId, ar.cause());
+        }
+      });
   }
 
-  private class Staging {
+  private static long contentLength(HttpServerRequest req) {
+    String header = req.getHeader(HttpHeaders.CONTENT_LENGTH);
+    if (header != null) {
+      try {
+        return Long.parseLong(header);
+      } catch (NumberFormatException ignore) {
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Copies a request body to a local stream and, once attached, to an upstream request.
+   *
+   * The local copy starts right away and does not depend on the upstream request. The head of the body is kept in
+   * memory until the upstream request is attached, the upstream request is given up when the head exceeds a limit
+   * and detached when it fails. Once the local copy fails, the rest of the body is discarded.
+   */
+  private static class Tee {
+
+    private final ReadStream<Buffer> src;
+    private final WriteStream<Buffer> local;
+    private final long headLimit;
+    private final Promise<Void> promise = Promise.promise();
+    private List<Buffer> head = new ArrayList<>();
+    private long headSize;
+    private HttpClientRequest upstream;
+    private boolean ended;
+
+    Tee(ReadStream<Buffer> src, WriteStream<Buffer> local, long headLimit) {
+      this.src = src;
+      this.local = local;
+      this.headLimit = headLimit;
+    }
+
+    /**
+     * @return a future completed when the body is written to the local stream
+     */
+    Future<Void> start() {
+      local.drainHandler(v -> resumeIfWritable());
+      local.exceptionHandler(err -> {
+        if (promise.tryFail(err)) {
+          src.resume();
+        }
+      });
+      src.exceptionHandler(promise::tryFail);
+      src.endHandler(v -> {
+        ended = true;
+        if (upstream != null) {
+          upstream.end();
+        }
+        promise.tryComplete();
+      });
+      src.handler(chunk -> {
+        if (promise.future().failed()) {
+          return;
+        }
+        local.write(chunk);
+        if (upstream != null) {
+          upstream.write(chunk);
+        } else if (head != null) {
+          head.add(chunk);
+          headSize += chunk.length();
+          if (headSize > headLimit) {
+            detach();
+          }
+        }
+        if (local.writeQueueFull() || (upstream != null && upstream.writeQueueFull())) {
+          src.pause();
+        }
+      });
+      src.resume();
+      return promise.future();
+    }
+
+    /**
+     * Attach the upstream request, it gets the head of the body and then follows the local copy.
+     *
+     * @return whether the request is attached, it is not when the upstream was given up
+     */
+    boolean attach(HttpClientRequest request) {
+      if (head == null) {
+        return false;
+      }
+      upstream = request;
+      request.drainHandler(v -> resumeIfWritable());
+      request.exceptionHandler(err -> detach());
+      head.forEach(request::write);
+      head = null;
+      if (ended) {
+        request.end();
+      }
+      return true;
+    }
+
+    /**
+     * Stop copying to the upstream request, the local copy carries on.
+     */
+    void detach() {
+      head = null;
+      HttpClientRequest request = upstream;
+      if (request != null) {
+        upstream = null;
+        request.reset();
+      }
+      resumeIfWritable();
+    }
+
+    private void resumeIfWritable() {
+      // The local stream is closed once the body is copied
+      if (!promise.future().isComplete() && !local.writeQueueFull() && (upstream == null || !upstream.writeQueueFull())) {
+        src.resume();
+      }
+    }
+  }
+
+  /**
+   * Create a zip archive of resources, the entries are named after the resource uris without the leading slash.
+   */
+  private static Buffer zip(List<String> uris, List<Buffer> contents) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.setLevel(Deflater.BEST_SPEED);
+      for (int i = 0; i < uris.size(); i++) {
+        zip.putNextEntry(new ZipEntry(uris.get(i).substring(1)));
+        zip.write(contents.get(i).getBytes());
+        zip.closeEntry();
+      }
+    }
+    return Buffer.buffer(out.toByteArray());
+  }
+
+  static boolean isMetadata(String uri) {
+    return uri.contains("maven-metadata.xml");
+  }
+
+  private static String formatDate(long time) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneOffset.UTC));
+  }
+
+  /**
+   * Evaluate the conditional headers of a GET or HEAD request, {@code If-None-Match} takes precedence over
+   * {@code If-Modified-Since}.
+   */
+  private static boolean isNotModified(HttpServerRequest req, String etag, long lastModified) {
+    String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals("*") || tag.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    String ifModifiedSince = req.getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+    if (ifModifiedSince != null) {
+      try {
+        long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        // HTTP dates have a second resolution
+        return lastModified / 1000 <= since / 1000;
+      } catch (DateTimeParseException ignore) {
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A staging profile served by the proxy, its resources are keyed by their path prefixed with {@link #prefix}.
+   */
+  private class Profile {
 
     private final String id;
-    private final Map<String, Resource> map = new HashMap<>();
+    private final String prefix;
+    private final ProxyMetrics metrics = new ProxyMetrics();
+    private final Listener listener;
+    private Future<String> repository;
+    private volatile String repositoryId;
+    private volatile boolean reattached;
 
-    Staging(String id) {
+    Profile(String id, String prefix) {
       this.id = id;
+      this.prefix = prefix;
+      this.listener = new Multicast(metrics, Proxy.this.listener);
+    }
+
+    /**
+     * Reattach to the staging repository recorded in the journal, otherwise create a new one on first call. A failed
+     * creation is attempted again by the next call.
+     */
+    private synchronized Future<String> repository() {
+      if (repository == null || repository.failed()) {
+        String recorded = journal != null ? journal.getRepositoryId(id) : null;
+        Future<String> fut;
+        if (recorded != null) {
+          Proxy.this.listener.onStagingSucceded(id, recorded);
+          reattached = true;
+          fut = Future.succeededFuture(recorded);
+        } else if (journal != null) {
+          fut = createStagingRepo(id).compose(repoId -> journal
+            .staging(id, repoId)
+            .map(repoId));
+        } else {
+          fut = createStagingRepo(id);
+        }
+        repository = fut.andThen(ar -> {
+          if (ar.succeeded()) {
+            repositoryId = ar.result();
+          }
+        });
+      }
+      return repository;
+    }
+  }
+
+  /**
+   * A shard of the proxy bound to an event loop, it owns the resources whose path hashes to it and uploads them with
+   * its share of the upstream concurrency.
+   */
+  private class Staging {
+
+    private final Context context;
+    // Mutated by the owning event loop only, read by any event loop
+    private final Map<String, Resource> map = new ConcurrentHashMap<>();
+    private final ConcurrencyLimiter limiter;
+    private final UploadScheduler scheduler;
+    private final List<Promise<Void>> drainWaiters = new ArrayList<>();
+    private final Map<Profile, Bundle> bundles = new HashMap<>();
+    private volatile int concurrency;
+    // The PUT requests received by this event loop and not yet answered
+    private volatile int ingests;
+
+    Staging(Context context, int initialConcurrency, int maxConcurrency) {
+      this.context = context;
+      this.limiter = new ConcurrencyLimiter(initialConcurrency, maxConcurrency, stagingAdaptiveConcurrency, limit -> {
+        concurrency = limit;
+        reportConcurrency();
+      });
+      this.concurrency = limiter.getLimit();
+      this.scheduler = new UploadScheduler(limiter, schedulingPolicy, schedulingMetadataLast, slice(schedulingQueueSize));
+    }
+
+    /**
+     * Run {@code action} on the event loop of this shard, the returned future is completed on the caller context.
+     */
+    private <T> Future<T> execute(Supplier<Future<T>> action) {
+      Context caller = vertx.getOrCreateContext();
+      Promise<T> promise = Promise.promise();
+      context.runOnContext(v -> action.get().onComplete(ar -> caller.runOnContext(v2 -> promise.handle(ar))));
+      return promise.future();
+    }
+
+    private Future<Void> start() {
+      List<Journal.Record> owned = new ArrayList<>();
+      for (Journal.Record record : restored) {
+        if (shardOf(record.path) == this && profileOf(record.path).reattached) {
+          owned.add(record);
+        }
+      }
+      return restore(owned)
+        .compose(v -> vertx.createHttpServer(new HttpServerOptions().setHandle100ContinueAutomatically(true))
+          .requestHandler(this::handleRequest)
+          .listen(port))
+        .mapEmpty();
+    }
+
+    private Future<Void> drain() {
+      Promise<Void> promise = Promise.promise();
+      drainWaiters.add(promise);
+      checkDrained();
+      return promise.future();
+    }
+
+    private void checkDrained() {
+      if (drainWaiters.size() > 0 && isDrained()) {
+        List<Promise<Void>> waiters = new ArrayList<>(drainWaiters);
+        drainWaiters.clear();
+        waiters.forEach(Promise::complete);
+      }
+    }
+
+    /**
+     * Resources of a profile waiting to be uploaded together in a zip archive to the bundle endpoint.
+     */
+    private class Bundle {
+
+      private final Profile profile;
+      private final List<Resource> resources = new ArrayList<>();
+      private final List<ResourceStore.Content> contents = new ArrayList<>();
+      private final List<Promise<Void>> promises = new ArrayList<>();
+      private long size;
+      private long timer = -1L;
+
+      Bundle(Profile profile) {
+        this.profile = profile;
+      }
+    }
+
+    /**
+     * Add a resource to the bundle of its profile, the bundle is uploaded when it reaches the max size or after the
+     * max delay.
+     *
+     * @return a future completed when the resource is uploaded
+     */
+    private Future<Void> bundle(Resource res, ResourceStore.Content c) {
+      Bundle bundle = bundles.computeIfAbsent(res.profile, Bundle::new);
+      Promise<Void> promise = Promise.promise();
+      bundle.resources.add(res);
+      bundle.contents.add(c);
+      bundle.promises.add(promise);
+      bundle.size += c.length();
+      res.profile.listener.onResourceQueued(res.requestUri, c.length());
+      if (bundle.size >= bundleMaxSize) {
+        flush(bundle);
+      } else if (bundle.timer == -1L) {
+        bundle.timer = vertx.setTimer(Math.max(1L, bundleMaxDelay), id -> {
+          bundle.timer = -1L;
+          flush(bundle);
+        });
+      }
+      return promise.future();
+    }
+
+    private void flush(Bundle bundle) {
+      if (bundles.remove(bundle.profile) != bundle) {
+        return;
+      }
+      if (bundle.timer != -1L) {
+        vertx.cancelTimer(bundle.timer);
+      }
+      Listener profileListener = bundle.profile.listener;
+      List<String> uris = new ArrayList<>();
+      List<Future<Buffer>> reads = new ArrayList<>();
+      for (int i = 0; i < bundle.resources.size(); i++) {
+        uris.add(bundle.resources.get(i).uri);
+        reads.add(bundle.contents.get(i).read());
+      }
+      String requestUri = bundleEndpoint.replace("{repositoryId}", bundle.profile.repositoryId);
+      RequestOptions post = createBaseRequest(HttpMethod.POST, requestUri);
+      post.putHeader(HttpHeaders.CONTENT_TYPE, "application/zip");
+      if (stagingIdleTimeout > 0) {
+        post.setIdleTimeout(stagingIdleTimeout);
+      }
+      Future.all(reads)
+        .compose(v -> vertx.executeBlocking(() -> zip(uris, v.list())))
+        .compose(archive -> breaker.acquire().compose(permit -> scheduler
+          .schedule(bundle.profile.id, archive.length(), false)
+          .compose(v -> shape(archive.length()))
+          .compose(v -> {
+            bundle.resources.forEach(res -> profileListener.onResourceCreate(res.requestUri));
+            long start = System.nanoTime();
+            return client.request(post)
+              .compose(request -> {
+                String connection = String.valueOf(request.connection().localAddress());
+                bundle.resources.forEach(res -> profileListener.onResourceSending(res.requestUri, connection));
+                return request.send(archive);
+              })
+              .andThen(ar -> {
+                int status = ar.succeeded() ? ar.result().statusCode() : 0;
+                if (ar.succeeded()) {
+                  bundle.resources.forEach(res -> profileListener.onResourceResponse(res.requestUri, status));
+                }
+                boolean overloaded = ar.failed() ? ar.cause() instanceof TimeoutException : status == 429 || status >= 500;
+                scheduler.release(System.nanoTime() - start, status == 201, overloaded);
+                breaker.record(permit, status == 201);
+              })
+              .expecting(HttpResponseExpectation.SC_CREATED);
+          })))
+        .onComplete(ar -> {
+          for (int i = 0; i < bundle.resources.size(); i++) {
+            Resource res = bundle.resources.get(i);
+            ResourceStore.Content c = bundle.contents.get(i);
+            if (ar.succeeded()) {
+              profileListener.onResourceSucceeded(res.requestUri);
+              bundle.promises.get(i).complete();
+            } else {
+              // Fallback to a PUT per resource
+              res.put(c.length(), c::send).<Void>mapEmpty().onComplete(bundle.promises.get(i));
+            }
+          }
+        });
+    }
+
+    private Future<Void> whenNotFull() {
+      Promise<Void> promise = Promise.promise();
+      scheduler.whenNotFull(v -> promise.complete());
+      return promise.future();
     }
 
     private class Resource {
 
+      private final String path;
+      private final Profile profile;
       private final String uri;
-      private Buffer content;
+      private final String requestUri;
+      private volatile ResourceStore.Content content;
+      // The content of the upload in progress, released when superseded once the upload is done
+      private ResourceStore.Content sending;
+      private volatile long lastModified;
+      private long version;
       private boolean stale;
       private Future<?> upload;
+      private int attempts;
+      private long retryTimer = -1L;
+      private long backlog = -1L;
+      private String sendingDigest;
+      private String uploadedDigest;
+
+      private Resource(String path) {
+        this.path = path;
+        this.profile = profileOf(path);
+        this.uri = path.substring(profile.prefix.length());
+        this.requestUri = "/service/local/staging/deployByRepositoryId/" + profile.repositoryId + uri;
+      }
+
+      private boolean isIdle() {
+        return upload == null || upload.isComplete();
+      }
+
+      private boolean isDone() {
+        return isIdle() && !stale && retryTimer == -1L;
+      }
+
+      private boolean update(long v, ResourceStore.Content c) {
+        if (v != version) {
+          // Superseded by a more recent PUT
+          c.release();
+          return false;
+        }
+        ResourceStore.Content previous = content;
+        content = c;
+        lastModified = System.currentTimeMillis();
+        attempts = 0;
+        if (previous != null && previous != sending) {
+          previous.release();
+        }
+        return true;
+      }
 
-      private Resource(String uri) {
-        this.uri = uri;
+      /**
+       * Accept the content of a PUT.
+       *
+       * @return the response status
+       */
+      private Future<Integer> accept(long v, ResourceStore.Content c) {
+        if (!update(v, c)) {
+          return Future.succeededFuture(201);
+        }
+        profile.listener.onResourceReceived(requestUri, c.length());
+        Future<Integer> status = accepted(this).map(201).otherwise(500);
+        if (deduplicate()) {
+          if (isIdle()) {
+            evict();
+            checkDrained();
+          }
+        } else {
+          stale = true;
+          check();
+        }
+        updateBacklog();
+        return status;
+      }
+
+      /**
+       * @return whether the current content is already uploaded or being uploaded
+       */
+      private boolean deduplicate() {
+        String digest = content.digest();
+        if (isIdle() ? digest.equals(uploadedDigest) : digest.equals(sendingDigest)) {
+          if (isIdle()) {
+            cancelRetry();
+          }
+          stale = false;
+          profile.listener.onResourceDeduplicated(requestUri, content.length());
+          return true;
+        }
+        return false;
       }
 
       private void check() {
         if (upload == null) {
-          stale = false;
-          upload = upload();
-          upload.onComplete(ar -> {
-            if (ar.failed()) {
-              stale = true;
-            }
-            check();
-          });
+          if (content != null) {
+            stale = false;
+            track(upload());
+          }
         } else if (upload.isComplete()) {
           if (stale) {
+            cancelRetry();
             upload = null;
             check();
           }
         }
       }
 
+      private void track(Future<?> fut) {
+        upload = fut;
+        fut.onComplete(ar -> {
+          ResourceStore.Content sent = sending;
+          sending = null;
+          if (sent != null && sent != content) {
+            sent.release();
+          }
+          if (ar.failed()) {
+            if (!stale) {
+              scheduleRetry();
+            }
+          } else {
+            attempts = 0;
+            uploadedDigest = sendingDigest;
+            if (journal != null) {
+              journal.uploaded(path, uploadedDigest);
+            }
+            if (!stale) {
+              evict();
+            }
+          }
+          check();
+          updateBacklog();
+          checkDrained();
+        });
+      }
+
+      /**
+       * Account this resource in the backlog of the admission control until it is done.
+       */
+      private void updateBacklog() {
+        long length = isDone() ? -1L : content != null ? content.length() : 0L;
+        if (length != backlog) {
+          admission.update(Math.max(0L, length) - Math.max(0L, backlog), (length >= 0 ? 1 : 0) - (backlog >= 0 ? 1 : 0));
+          backlog = length;
+        }
+      }
+
+      private void scheduleRetry() {
+        if (++attempts >= retryMaxAttempts) {
+          profile.listener.onResourceAbandoned(requestUri, attempts);
+          return;
+        }
+        // Exponential backoff with equal jitter
+        long delay = Math.min(retryMaxDelay, retryInitialDelay << Math.min(attempts - 1, 30));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        profile.listener.onResourceRetry(requestUri, attempts, delay);
+        retryTimer = vertx.setTimer(Math.max(1L, delay), id -> {
+          retryTimer = -1L;
+          stale = true;
+          check();
+        });
+      }
+
+      private void evict() {
+        if (storeEvictUploaded && !isMetadata(uri)) {
+          content.release();
+        }
+      }
+
+      private void cancelRetry() {
+        if (retryTimer != -1L) {
+          vertx.cancelTimer(retryTimer);
+          retryTimer = -1L;
+        }
+      }
+
       private Future<?> upload() {
-        Buffer requestBody = content;
-        String requestUri = "/service/local/staging/deployByRepositoryId/" + id + uri;
-        listener.onResourceCreate(requestUri);
+        ResourceStore.Content requestBody = content;
+        sending = requestBody;
+        sendingDigest = requestBody.digest();
+        if (bundleUpload && requestBody.length() <= bundleMaxEntrySize && !isMetadata(uri)) {
+          return bundle(this, requestBody);
+        }
+        return put(requestBody.length(), requestBody::send);
+      }
+
+      /**
+       * Stream the request body to the store and to the upstream server at the same time.
+       *
+       * The store gets the body right away, the upstream request is attached when the breaker, the scheduler and the
+       * traffic shaping let it through. When the upstream request cannot be attached or fails, the stored content is
+       * uploaded instead and the PUT is answered from the store alone.
+       */
+      private void stream(HttpServerRequest req, long length) {
+        req.pause();
+        store.open(path).onComplete(ar -> {
+          if (ar.failed()) {
+            // Nothing was accepted, the current content and its retry are left as they are, the body is discarded
+            req.response().setStatusCode(500).end();
+            req.resume();
+          } else if (!isIdle()) {
+            // Another PUT started an upload while the store was opening, buffer this one instead
+            ar.result().abort();
+            handleBody(req, this);
+          } else {
+            stream(req, length, ar.result());
+          }
+        });
+      }
+
+      private void stream(HttpServerRequest req, long length, ResourceStore.ContentWriter writer) {
+        long v = ++version;
+        stale = false;
+        sendingDigest = null;
+        cancelRetry();
+        Future<ResourceStore.Content> stored = writer.content().andThen(ar -> {
+          if (ar.succeeded()) {
+            if (update(v, ar.result())) {
+              sendingDigest = content.digest();
+              profile.listener.onResourceReceived(requestUri, content.length());
+              accepted(this).onComplete(ar2 -> req.response().setStatusCode(ar2.succeeded() ? 201 : 500).end());
+            } else {
+              req.response().setStatusCode(201).end();
+            }
+          } else {
+            req.response().setStatusCode(500).end();
+          }
+        });
+        Tee tee = new Tee(req, writer, Math.min(streamingThreshold, STREAMING_HEAD_MAX_SIZE));
+        tee.start().onComplete(ar -> {
+          if (ar.succeeded()) {
+            writer.end();
+          } else {
+            writer.abort();
+            tee.detach();
+          }
+        });
+        Future<HttpClientResponse> streamed = put(length, request -> {
+          request.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+          if (tee.attach(request)) {
+            return request.response();
+          }
+          // Too late to stream, send the stored content on this request
+          return stored.compose(c -> {
+            sending = c;
+            return c.send(request);
+          });
+        }).onFailure(err -> tee.detach());
+        track(stored.compose(c -> streamed.transform(ar -> {
+          if (ar.succeeded()) {
+            return Future.<Void>succeededFuture();
+          } else if (c != content) {
+            // Superseded by a more recent PUT
+            return Future.<Void>failedFuture(ar.cause());
+          }
+          // Upload the stored content instead
+          sending = c;
+          return put(c.length(), c::send).<Void>mapEmpty();
+        })));
+        updateBacklog();
+      }
+
+      private Future<HttpClientResponse> put(long length, Function<HttpClientRequest, Future<HttpClientResponse>> sender) {
         RequestOptions put = createBaseRequest(HttpMethod.PUT, requestUri);
-        return client.request(put)
-          .compose(request -> request
-            .send(requestBody)
-            .expecting(HttpResponseExpectation.SC_CREATED)
-            .andThen(ar -> {
-              if (ar.succeeded()) {
-                listener.onResourceSucceeded(requestUri);
-              } else {
-                String failure = invalidResponse(HttpMethod.PUT, requestUri, 201, requestBody);
-                listener.onResourceFailed(requestUri, new VertxException(failure));
-              }
-            }));
+        if (stagingIdleTimeout > 0) {
+          put.setIdleTimeout(stagingIdleTimeout);
+        }
+        profile.listener.onResourceQueued(requestUri, length);
+        return breaker.acquire().compose(permit -> scheduler
+          .schedule(profile.id, length, isMetadata(uri))
+          .compose(v -> shape(length))
+          .compose(v -> {
+            profile.listener.onResourceCreate(requestUri);
+            long start = System.nanoTime();
+            return client.request(put)
+              .compose(request -> {
+                profile.listener.onResourceSending(requestUri, String.valueOf(request.connection().localAddress()));
+                return sender.apply(request).recover(err -> {
+                  // The response is still pending when the request failed before reaching the server
+                  boolean local = !request.response().isComplete();
+                  // Give the connection back to the pool, the failure is reported by the upload
+                  request.exceptionHandler(ignore -> {});
+                  request.reset(0, err);
+                  return Future.failedFuture(local ? new LocalFailure(err) : err);
+                });
+              })
+              .andThen(ar -> {
+                if (ar.failed() && ar.cause() instanceof LocalFailure) {
+                  // Not an outcome of the upstream server
+                  scheduler.release(System.nanoTime() - start, false, false);
+                  breaker.release(permit);
+                  return;
+                }
+                int status = ar.succeeded() ? ar.result().statusCode() : 0;
+                if (ar.succeeded()) {
+                  profile.listener.onResourceResponse(requestUri, status);
+                }
+                boolean overloaded = ar.failed() ? ar.cause() instanceof TimeoutException : status == 429 || status >= 500;
+                scheduler.release(System.nanoTime() - start, status == 201, overloaded);
+                breaker.record(permit, status == 201);
+              })
+              .expecting(HttpResponseExpectation.SC_CREATED);
+          }))
+          .andThen(ar -> {
+            if (ar.succeeded()) {
+              profile.listener.onResourceSucceeded(requestUri);
+            } else {
+              String failure = invalidResponse(HttpMethod.PUT, requestUri, 201, null);
+              profile.listener.onResourceFailed(requestUri, new VertxException(failure, ar.cause()));
+            }
+          });
       }
     }
 
+    private Resource resource(String path) {
+      return map.computeIfAbsent(path, Resource::new);
+    }
+
+    private boolean isDrained() {
+      if (ingests > 0) {
+        // The resource of a PUT being received is not done yet
+        return false;
+      }
+      for (Resource res : map.values()) {
+        if (!res.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private Future<Void> restore(Collection<Journal.Record> records) {
+      List<Future<Void>> list = new ArrayList<>();
+      for (Journal.Record record : records) {
+        Future<ResourceStore.Content> content = record.file != null ? store.restore(record.file, record.length, record.digest) : Future.succeededFuture();
+        list.add(content.map(c -> {
+          Resource res = resource(record.path);
+          res.content = c;
+          res.lastModified = System.currentTimeMillis();
+          res.uploadedDigest = record.uploadedDigest;
+          if (c != null && !record.digest.equals(record.uploadedDigest)) {
+            res.stale = true;
+            res.check();
+            res.updateBacklog();
+          }
+          return null;
+        }));
+      }
+      return Future.all(list).mapEmpty();
+    }
+
+    /**
+     * @return a future completed when the current content of the resource is durable
+     */
+    private Future<Void> accepted(Resource res) {
+      if (journal == null) {
+        return Future.succeededFuture();
+      }
+      return journal.accepted(res.path, res.content);
+    }
+
     private void handleRequest(HttpServerRequest req) {
       HttpMethod method = req.method();
       String path = req.path();
-      if (method == HttpMethod.OPTIONS) {
-        req.response().putHeader("Allow", "OPTIONS, GET, PUT").end();
-      } else if (method == HttpMethod.PUT) {
-        req.bodyHandler(body -> {
-          Resource res = map.computeIfAbsent(path, Resource::new);
-          res.content = body;
-          res.stale = true;
-          req.response().setStatusCode(201).end();
-          res.check();
+      if (isEndpoint(path) && method != HttpMethod.GET) {
+        // Not a resource either
+        req.response().setStatusCode(405).putHeader("Allow", "GET").end();
+      } else if (path.equals(DRAIN_PATH)) {
+        Proxy.this.drain().onComplete(ar -> {
+          if (ar.succeeded()) {
+            DrainResult result = ar.result();
+            req.response().setStatusCode(result.isSuccess() ? 200 : 500).end(result + "\n");
+          } else {
+            req.response().setStatusCode(500).end();
+          }
         });
-      } else if (method == HttpMethod.GET) {
-        Resource resource = map.get(path);
-        if (resource == null) {
+      } else if (tracer != null && path.equals(TRACE_PATH)) {
+        req.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json").end(tracer.toChromeTrace().toBuffer());
+      } else if (metricsEndpoint && path.equals(METRICS_PATH)) {
+        req.response().putHeader(HttpHeaders.CONTENT_TYPE, "text/plain; version=0.0.4").end(metrics.toPrometheus());
+      } else if (method == HttpMethod.OPTIONS) {
+        req.response().putHeader("Allow", "OPTIONS, GET, HEAD, PUT").end();
+      } else if (method == HttpMethod.PUT) {
+        lastActivity = System.currentTimeMillis();
+        if (admissionRetryAfter > 0 && admission.getState() == AdmissionControl.State.THROTTLED) {
+          req.response()
+            .setStatusCode(503)
+            .putHeader(HttpHeaders.RETRY_AFTER, String.valueOf(admissionRetryAfter))
+            .end();
+          return;
+        }
+        ingest(req);
+        Future<String> repository = profileOf(path).repository();
+        if (repository.succeeded()) {
+          route(req, path);
+        } else {
+          // The staging repository of the profile is created by its first PUT
+          req.pause();
+          repository.onComplete(ar -> context.runOnContext(v -> {
+            if (ar.succeeded()) {
+              route(req, path);
+            } else {
+              req.response().setStatusCode(500).end();
+            }
+          }));
+        }
+      } else if (method == HttpMethod.GET || method == HttpMethod.HEAD) {
+        Resource resource = shardOf(path).map.get(path);
+        ResourceStore.Content content = resource != null ? resource.content : null;
+        if (content == null || content.isReleased()) {
           req.response().setStatusCode(404).end();
         } else {
-          req.response().end(resource.content);
+          // The digest is computed once when the content is stored
+          String etag = "\"" + content.digest() + "\"";
+          HttpServerResponse response = req.response()
+            .putHeader(HttpHeaders.ETAG, etag)
+            .putHeader(HttpHeaders.LAST_MODIFIED, formatDate(resource.lastModified));
+          if (isNotModified(req, etag, resource.lastModified)) {
+            response.setStatusCode(304).end();
+          } else if (method == HttpMethod.HEAD) {
+            response.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(content.length())).end();
+          } else {
+            content.send(response);
+          }
         }
+      } else {
+        req.response().setStatusCode(405).putHeader("Allow", "OPTIONS, GET, HEAD, PUT").end();
+      }
+    }
+
+    /**
+     * @return whether {@code path} is served by an endpoint of the proxy rather than by a resource
+     */
+    private boolean isEndpoint(String path) {
+      return path.equals(DRAIN_PATH) || (tracer != null && path.equals(TRACE_PATH)) || (metricsEndpoint && path.equals(METRICS_PATH));
+    }
+
+    /**
+     * Count a PUT request as in flight until its response is sent or its connection is closed.
+     */
+    private void ingest(HttpServerRequest req) {
+      ingests++;
+      boolean[] done = new boolean[1];
+      Handler<Void> handler = v -> {
+        if (!done[0]) {
+          done[0] = true;
+          ingests--;
+          lastActivity = System.currentTimeMillis();
+          checkDrained();
+        }
+      };
+      req.response().endHandler(handler);
+      req.response().closeHandler(handler);
+    }
+
+    private void route(HttpServerRequest req, String path) {
+      if (admission.getState() == AdmissionControl.State.THROTTLED) {
+        // Stop reading the body until the backlog is under the low watermarks
+        req.pause();
+        admission.whenOpen(() -> context.runOnContext(v -> admit(req, path)));
+      } else {
+        admit(req, path);
+      }
+    }
+
+    private void admit(HttpServerRequest req, String path) {
+      Staging owner = shardOf(path);
+      if (owner != this) {
+        forward(req, path, owner);
+      } else if (scheduler.isFull()) {
+        req.pause();
+        scheduler.whenNotFull(v -> handlePut(req, path));
+      } else {
+        handlePut(req, path);
+      }
+    }
+
+    private void handlePut(HttpServerRequest req, String path) {
+      Resource res = resource(path);
+      long length = contentLength(req);
+      if (streamingThreshold >= 0 && length > streamingThreshold && res.isIdle()) {
+        res.stream(req, length);
+        return;
+      }
+      handleBody(req, res);
+    }
+
+    private void handleBody(HttpServerRequest req, Resource res) {
+      req.bodyHandler(body -> {
+        long version = ++res.version;
+        store.store(res.path, body)
+          .compose(content -> res.accept(version, content))
+          .onComplete(ar -> req.response().setStatusCode(ar.succeeded() ? ar.result() : 500).end());
+      });
+      // The request is paused when it waited for the scheduler queue
+      req.resume();
+    }
+
+    /**
+     * Ingest a PUT on this event loop and hand its content over to the shard owning the resource, the body is spooled
+     * to the store when it would be streamed.
+     */
+    private void forward(HttpServerRequest req, String path, Staging owner) {
+      req.pause();
+      owner.execute(owner::whenNotFull)
+        .compose(v -> {
+          long length = contentLength(req);
+          if (streamingThreshold >= 0 && length > streamingThreshold) {
+            // Do not end the writer when the request fails, it would store a truncated content
+            return store.open(path).compose(writer -> req.pipe()
+              .endOnFailure(false)
+              .to(writer)
+              .compose(v2 -> writer.content(), err -> {
+                writer.abort();
+                return Future.failedFuture(err);
+              }));
+          }
+          Future<Buffer> body = req.body();
+          req.resume();
+          return body.compose(buffer -> store.store(path, buffer));
+        })
+        .compose(content -> owner.execute(() -> {
+          Resource res = owner.resource(path);
+          return res.accept(++res.version, content);
+        }))
+        .onComplete(ar -> req.response().setStatusCode(ar.succeeded() ? ar.result() : 500).end());
+    }
+  }
+
+  /**
+   * The failure of an upload before its request reached the upstream server, e.g. when its content cannot be read.
+   */
+  private static class LocalFailure extends VertxException {
+    LocalFailure(Throwable cause) {
+      super(cause, true);
+    }
+  }
+
+  /**
+   * Dispatches the events to the metrics, the tracer and the user listener.
+   */
+  private static class Multicast implements Listener {
+
+    private final Listener[] listeners;
+
+    Multicast(Listener... listeners) {
+      this.listeners = listeners;
+    }
+
+    @Override
+    public void onStagingCreate(String profileId) {
+      for (Listener listener : listeners) {
+        listener.onStagingCreate(profileId);
+      }
+    }
+
+    @Override
+    public void onStagingSucceded(String profileId, String repoId) {
+      for (Listener listener : listeners) {
+        listener.onStagingSucceded(profileId, repoId);
+      }
+    }
+
+    @Override
+    public void onStagingFailed(String profileId, Throwable cause) {
+      for (Listener listener : listeners) {
+        listener.onStagingFailed(profileId, cause);
+      }
+    }
+
+    @Override
+    public void onResourceReceived(String uri, long bytes) {
+      for (Listener listener : listeners) {
+        listener.onResourceReceived(uri, bytes);
+      }
+    }
+
+    @Override
+    public void onResourceQueued(String uri, long bytes) {
+      for (Listener listener : listeners) {
+        listener.onResourceQueued(uri, bytes);
+      }
+    }
+
+    @Override
+    public void onResourceCreate(String uri) {
+      for (Listener listener : listeners) {
+        listener.onResourceCreate(uri);
+      }
+    }
+
+    @Override
+    public void onResourceSending(String uri, String connection) {
+      for (Listener listener : listeners) {
+        listener.onResourceSending(uri, connection);
+      }
+    }
+
+    @Override
+    public void onResourceResponse(String uri, int status) {
+      for (Listener listener : listeners) {
+        listener.onResourceResponse(uri, status);
+      }
+    }
+
+    @Override
+    public void onResourceSucceeded(String uri) {
+      for (Listener listener : listeners) {
+        listener.onResourceSucceeded(uri);
+      }
+    }
+
+    @Override
+    public void onResourceFailed(String uri, Throwable cause) {
+      for (Listener listener : listeners) {
+        listener.onResourceFailed(uri, cause);
+      }
+    }
+
+    @Override
+    public void onResourceRetry(String uri, int attempt, long delay) {
+      for (Listener listener : listeners) {
+        listener.onResourceRetry(uri, attempt, delay);
+      }
+    }
+
+    @Override
+    public void onResourceAbandoned(String uri, int attempts) {
+      for (Listener listener : listeners) {
+        listener.onResourceAbandoned(uri, attempts);
+      }
+    }
+
+    @Override
+    public void onResourceDeduplicated(String uri, long bytes) {
+      for (Listener listener : listeners) {
+        listener.onResourceDeduplicated(uri, bytes);
+      }
+    }
+
+    @Override
+    public void onConcurrencyChange(int limit) {
+      for (Listener listener : listeners) {
+        listener.onConcurrencyChange(limit);
+      }
+    }
+
+    @Override
+    public void onCircuitBreakerStateChange(String state) {
+      for (Listener listener : listeners) {
+        listener.onCircuitBreakerStateChange(state);
+      }
+    }
+
+    @Override
+    public void onAdmissionStateChange(String state) {
+      for (Listener listener : listeners) {
+        listener.onAdmissionStateChange(state);
       }
     }
   }
@@ -1,6 +1,7 @@
 package com.julienviet.releaser;
 
 import java.util.List;
+import java.util.Map;
 
 public interface ProxyMBean {
 
@@ -16,8 +17,80 @@ public interface ProxyMBean {
 
   int getErrorCount();
 
+  int getRetryCount();
+
+  int getAbandonedCount();
+
+  String getCircuitBreakerState();
+
+  int getDeduplicatedCount();
+
+  long getDeduplicatedBytes();
+
+  int getConcurrencyLimit();
+
+  /**
+   * @return the upstream requests per second limit, {@code 0} when unlimited
+   */
+  double getRequestRateLimit();
+
+  void setRequestRateLimit(double limit);
+
+  /**
+   * @return the upstream bytes per second limit, {@code 0} when unlimited
+   */
+  long getBandwidthLimit();
+
+  void setBandwidthLimit(long limit);
+
+  /**
+   * @return {@code OPEN} or {@code THROTTLED} when the backlog exceeded a high watermark of the admission control
+   */
+  String getAdmissionState();
+
+  /**
+   * @return the number of resources accepted but not yet uploaded
+   */
+  int getBacklogCount();
+
+  /**
+   * @return the bytes of the resources accepted but not yet uploaded
+   */
+  long getBacklogBytes();
+
+  double getBytesReceivedRate();
+
+  double getBytesSentRate();
+
+  long getPendingBytes();
+
+  Map<String, Integer> getQueueDepth();
+
+  /**
+   * @return the queue wait percentiles in microseconds
+   */
+  Map<String, Long> getQueueWait();
+
+  /**
+   * @return the percentiles of the time from the start of an upstream request until its response in microseconds
+   */
+  Map<String, Long> getUpstreamResponseTime();
+
+  /**
+   * @return the upload duration percentiles in microseconds
+   */
+  Map<String, Long> getUploadDuration();
+
   List<String> getInProgress();
 
   Throwable getLastError();
 
+  /**
+   * Wait until all the uploads are done.
+   *
+   * @param timeout the maximum time to wait in milliseconds
+   * @return whether the proxy is drained and no upload was abandoned
+   */
+  boolean drain(long timeout);
+
 }
@@ -0,0 +1,323 @@
+package com.julienviet.releaser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Proxy metrics computed from the {@link Proxy.Listener} events, latencies are recorded in microseconds.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class ProxyMetrics implements Proxy.Listener {
+
+  /**
+   * The priority classes of the upload scheduler.
+   */
+  public static final String[] QUEUE_CLASSES = { "metadata", "small", "large" };
+
+  private static final double[] QUANTILES = { 0.5D, 0.9D, 0.99D, 0.999D };
+  private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+  private static class Upload {
+
+    final long bytes;
+    final int queueClass;
+    final long queuedAt = System.nanoTime();
+    volatile long createdAt;
+
+    Upload(long bytes, int queueClass) {
+      this.bytes = bytes;
+      this.queueClass = queueClass;
+    }
+  }
+
+  /**
+   * A rate over a sliding window of one second slots.
+   */
+  static class Rate {
+
+    private static final int SLOTS = 10;
+
+    private final long[] slots = new long[SLOTS];
+    private final long[] seconds = new long[SLOTS];
+
+    synchronized void record(long value) {
+      long now = System.currentTimeMillis() / 1000;
+      int slot = (int) (now % SLOTS);
+      if (seconds[slot] != now) {
+        seconds[slot] = now;
+        slots[slot] = 0;
+      }
+      slots[slot] += value;
+    }
+
+    /**
+     * @return the average per second over the last complete slots
+     */
+    synchronized double get() {
+      long now = System.currentTimeMillis() / 1000;
+      long total = 0;
+      for (int i = 0; i < SLOTS; i++) {
+        if (seconds[i] < now && seconds[i] >= now - (SLOTS - 1)) {
+          total += slots[i];
+        }
+      }
+      return total / (double) (SLOTS - 1);
+    }
+  }
+
+  private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+  private final LatencyHistogram queueWait = new LatencyHistogram();
+  private final LatencyHistogram upstreamResponseTime = new LatencyHistogram();
+  private final LatencyHistogram uploadDuration = new LatencyHistogram();
+  private final AtomicInteger[] queueDepth = { new AtomicInteger(), new AtomicInteger(), new AtomicInteger() };
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final LongAdder received = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder abandoned = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+  private final LongAdder deduplicatedBytes = new LongAdder();
+  private volatile Throwable lastError;
+  private final Rate bytesReceivedRate = new Rate();
+  private final Rate bytesSentRate = new Rate();
+
+  private static int queueClass(String uri, long bytes) {
+    if (Proxy.isMetadata(uri)) {
+      return 0;
+    }
+    return bytes < UploadScheduler.SMALL_THRESHOLD ? 1 : 2;
+  }
+
+  @Override
+  public void onResourceReceived(String uri, long bytes) {
+    received.increment();
+    bytesReceived.add(bytes);
+    bytesReceivedRate.record(bytes);
+  }
+
+  @Override
+  public void onResourceQueued(String uri, long bytes) {
+    Upload upload = new Upload(bytes, queueClass(uri, bytes));
+    Upload previous = uploads.put(uri, upload);
+    if (previous != null) {
+      end(previous);
+    }
+    queueDepth[upload.queueClass].incrementAndGet();
+    pendingBytes.addAndGet(bytes);
+  }
+
+  @Override
+  public void onResourceCreate(String uri) {
+    Upload upload = uploads.get(uri);
+    if (upload != null && upload.createdAt == 0) {
+      upload.createdAt = System.nanoTime();
+      queueDepth[upload.queueClass].decrementAndGet();
+      queueWait.record((upload.createdAt - upload.queuedAt) / 1000);
+    }
+  }
+
+  @Override
+  public void onResourceResponse(String uri, int status) {
+    Upload upload = uploads.get(uri);
+    if (upload != null && upload.createdAt != 0) {
+      upstreamResponseTime.record((System.nanoTime() - upload.createdAt) / 1000);
+    }
+  }
+
+  @Override
+  public void onResourceSucceeded(String uri) {
+    succeeded.increment();
+    Upload upload = uploads.remove(uri);
+    if (upload != null) {
+      end(upload);
+      bytesSent.add(upload.bytes);
+      bytesSentRate.record(upload.bytes);
+    }
+  }
+
+  @Override
+  public void onResourceFailed(String uri, Throwable cause) {
+    failed.increment();
+    lastError = cause;
+    Upload upload = uploads.remove(uri);
+    if (upload != null) {
+      end(upload);
+    }
+  }
+
+  @Override
+  public void onResourceRetry(String uri, int attempt, long delay) {
+    retries.increment();
+  }
+
+  @Override
+  public void onResourceAbandoned(String uri, int attempts) {
+    abandoned.increment();
+  }
+
+  @Override
+  public void onResourceDeduplicated(String uri, long bytes) {
+    deduplicated.increment();
+    deduplicatedBytes.add(bytes);
+  }
+
+  private void end(Upload upload) {
+    pendingBytes.addAndGet(-upload.bytes);
+    if (upload.createdAt == 0) {
+      queueDepth[upload.queueClass].decrementAndGet();
+    } else {
+      uploadDuration.record((System.nanoTime() - upload.createdAt) / 1000);
+    }
+  }
+
+  public LatencyHistogram getQueueWait() {
+    return queueWait;
+  }
+
+  public LatencyHistogram getUpstreamResponseTime() {
+    return upstreamResponseTime;
+  }
+
+  public LatencyHistogram getUploadDuration() {
+    return uploadDuration;
+  }
+
+  public long getPendingBytes() {
+    return pendingBytes.get();
+  }
+
+  /**
+   * @return the number of queued uploads per priority class
+   */
+  public Map<String, Integer> getQueueDepth() {
+    Map<String, Integer> depth = new LinkedHashMap<>();
+    for (int i = 0; i < QUEUE_CLASSES.length; i++) {
+      depth.put(QUEUE_CLASSES[i], queueDepth[i].get());
+    }
+    return depth;
+  }
+
+  /**
+   * @return the uris of the uploads in progress
+   */
+  public List<String> getInProgress() {
+    List<String> list = new ArrayList<>();
+    uploads.forEach((uri, upload) -> {
+      if (upload.createdAt != 0) {
+        list.add(uri);
+      }
+    });
+    return list;
+  }
+
+  public long getSucceeded() {
+    return succeeded.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  public long getAbandoned() {
+    return abandoned.sum();
+  }
+
+  public long getDeduplicated() {
+    return deduplicated.sum();
+  }
+
+  public long getDeduplicatedBytes() {
+    return deduplicatedBytes.sum();
+  }
+
+  public Throwable getLastError() {
+    return lastError;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  public double getBytesReceivedRate() {
+    return bytesReceivedRate.get();
+  }
+
+  public double getBytesSentRate() {
+    return bytesSentRate.get();
+  }
+
+  /**
+   * @return the count, the max and the usual percentiles of {@code histogram} in microseconds
+   */
+  public static Map<String, Long> summary(LatencyHistogram histogram) {
+    Map<String, Long> summary = new LinkedHashMap<>();
+    summary.put("count", histogram.getCount());
+    for (int i = 0; i < QUANTILES.length; i++) {
+      summary.put(QUANTILE_NAMES[i], histogram.getValueAtQuantile(QUANTILES[i]));
+    }
+    summary.put("max", histogram.getMax());
+    return summary;
+  }
+
+  /**
+   * @return the metrics in the Prometheus text exposition format
+   */
+  public String toPrometheus() {
+    StringBuilder sb = new StringBuilder();
+    counter(sb, "releaser_resources_received_total", received.sum());
+    counter(sb, "releaser_uploads_succeeded_total", succeeded.sum());
+    counter(sb, "releaser_uploads_failed_total", failed.sum());
+    counter(sb, "releaser_received_bytes_total", bytesReceived.sum());
+    counter(sb, "releaser_sent_bytes_total", bytesSent.sum());
+    counter(sb, "releaser_upload_retries_total", retries.sum());
+    counter(sb, "releaser_uploads_abandoned_total", abandoned.sum());
+    counter(sb, "releaser_uploads_deduplicated_total", deduplicated.sum());
+    counter(sb, "releaser_deduplicated_bytes_total", deduplicatedBytes.sum());
+    gauge(sb, "releaser_received_bytes_per_second", bytesReceivedRate.get());
+    gauge(sb, "releaser_sent_bytes_per_second", bytesSentRate.get());
+    gauge(sb, "releaser_pending_bytes", pendingBytes.get());
+    sb.append("# TYPE releaser_queue_depth gauge\n");
+    for (int i = 0; i < QUEUE_CLASSES.length; i++) {
+      sb.append("releaser_queue_depth{class=\"").append(QUEUE_CLASSES[i]).append("\"} ").append(queueDepth[i].get()).append('\n');
+    }
+    summary(sb, "releaser_queue_wait_seconds", queueWait);
+    summary(sb, "releaser_upstream_response_seconds", upstreamResponseTime);
+    summary(sb, "releaser_upload_duration_seconds", uploadDuration);
+    return sb.toString();
+  }
+
+  private static void counter(StringBuilder sb, String name, long value) {
+    sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void gauge(StringBuilder sb, String name, double value) {
+    sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void summary(StringBuilder sb, String name, LatencyHistogram histogram) {
+    sb.append("# TYPE ").append(name).append(" summary\n");
+    for (double quantile : QUANTILES) {
+      sb.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(histogram.getValueAtQuantile(quantile) / 1e6).append('\n');
+    }
+    sb.append(name).append("_sum ").append(histogram.getSum() / 1e6).append('\n');
+    sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+  }
+}
@@ -13,6 +13,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 /**
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
@@ -29,9 +32,126 @@ public class ProxyMojo extends AbstractMojo {
   @Parameter(property = "stagingPassword")
   private String stagingPassword;
 
+  @Parameter(property = "stagingHost", defaultValue = "s01.oss.sonatype.org")
+  private String stagingHost;
+
+  @Parameter(property = "stagingPort", defaultValue = "443")
+  private int stagingPort;
+
+  @Parameter(property = "stagingSsl", defaultValue = "true")
+  private boolean stagingSsl;
+
   @Parameter(property = "proxyPort", defaultValue = "8080")
   private int proxyPort;
 
+  @Parameter(property = "proxyInstances", defaultValue = "1")
+  private int proxyInstances;
+
+  @Parameter(property = "proxyMaxPoolSize", defaultValue = "5")
+  private int proxyMaxPoolSize;
+
+  @Parameter(property = "proxyAdaptiveConcurrency", defaultValue = "false")
+  private boolean proxyAdaptiveConcurrency;
+
+  @Parameter(property = "proxyHttp2", defaultValue = "false")
+  private boolean proxyHttp2;
+
+  @Parameter(property = "proxyHttp2MultiplexingLimit", defaultValue = "100")
+  private int proxyHttp2MultiplexingLimit;
+
+  @Parameter(property = "proxyRequestRate", defaultValue = "0")
+  private double proxyRequestRate;
+
+  @Parameter(property = "proxyBandwidth", defaultValue = "0")
+  private long proxyBandwidth;
+
+  @Parameter(property = "proxyAdmissionHighBytes", defaultValue = "0")
+  private long proxyAdmissionHighBytes;
+
+  @Parameter(property = "proxyAdmissionLowBytes", defaultValue = "0")
+  private long proxyAdmissionLowBytes;
+
+  @Parameter(property = "proxyAdmissionHighCount", defaultValue = "0")
+  private int proxyAdmissionHighCount;
+
+  @Parameter(property = "proxyAdmissionLowCount", defaultValue = "0")
+  private int proxyAdmissionLowCount;
+
+  @Parameter(property = "proxyAdmissionRetryAfter", defaultValue = "0")
+  private int proxyAdmissionRetryAfter;
+
+  @Parameter(property = "proxyIdleTimeout", defaultValue = "0")
+  private long proxyIdleTimeout;
+
+  @Parameter(property = "proxyRetryMaxAttempts", defaultValue = "50")
+  private int proxyRetryMaxAttempts;
+
+  @Parameter(property = "proxyRetryInitialDelay", defaultValue = "100")
+  private long proxyRetryInitialDelay;
+
+  @Parameter(property = "proxyRetryMaxDelay", defaultValue = "30000")
+  private long proxyRetryMaxDelay;
+
+  @Parameter(property = "proxyBreakerFailureRatio", defaultValue = "0.5")
+  private double proxyBreakerFailureRatio;
+
+  @Parameter(property = "proxyBreakerOpenDelay", defaultValue = "10000")
+  private long proxyBreakerOpenDelay;
+
+  @Parameter(property = "proxySchedulingPolicy", defaultValue = "SMALL_FIRST")
+  private SchedulingPolicy proxySchedulingPolicy;
+
+  @Parameter(property = "proxySchedulingMetadataLast", defaultValue = "true")
+  private boolean proxySchedulingMetadataLast;
+
+  @Parameter(property = "proxyJournalDirectory")
+  private String proxyJournalDirectory;
+
+  @Parameter(property = "proxyMemoryBudget", defaultValue = "134217728")
+  private long proxyMemoryBudget;
+
+  @Parameter(property = "proxySpillThreshold", defaultValue = "1048576")
+  private long proxySpillThreshold;
+
+  @Parameter(property = "proxyStoreDirectory")
+  private String proxyStoreDirectory;
+
+  @Parameter(property = "proxyEvictUploaded", defaultValue = "false")
+  private boolean proxyEvictUploaded;
+
+  @Parameter(property = "proxyStreamingThreshold", defaultValue = "8388608")
+  private long proxyStreamingThreshold;
+
+  @Parameter(property = "proxyMetricsEndpoint", defaultValue = "false")
+  private boolean proxyMetricsEndpoint;
+
+  @Parameter(property = "proxyTraceBufferSize", defaultValue = "0")
+  private int proxyTraceBufferSize;
+
+  @Parameter(property = "proxyTraceFile")
+  private String proxyTraceFile;
+
+  @Parameter(property = "proxyProfileRouting", defaultValue = "false")
+  private boolean proxyProfileRouting;
+
+  @Parameter(property = "proxyBundleUpload", defaultValue = "false")
+  private boolean proxyBundleUpload;
+
+  @Parameter(property = "proxyBundleEndpoint", defaultValue = "/service/local/staging/bundleByRepositoryId/{repositoryId}")
+  private String proxyBundleEndpoint;
+
+  @Parameter(property = "proxyBundleMaxSize", defaultValue = "4194304")
+  private long proxyBundleMaxSize;
+
+  @Parameter(property = "proxyBundleMaxEntrySize", defaultValue = "65536")
+  private long proxyBundleMaxEntrySize;
+
+  @Parameter(property = "proxyBundleMaxDelay", defaultValue = "100")
+  private long proxyBundleMaxDelay;
+
+  @Parameter(property = "proxyExitIdleTimeout", defaultValue = "0")
+  private long proxyExitIdleTimeout;
+
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
 
@@ -50,10 +170,21 @@ public class ProxyMojo extends AbstractMojo {
     class ProxyMonitor implements ProxyMBean, Proxy.Listener {
 
       volatile String repositoryId;
+      // Events are emitted from every event loop of the proxy
       volatile int sent;
       volatile int errors;
+      volatile int retries;
+      volatile int abandoned;
+      volatile String circuitBreakerState = "CLOSED";
+      volatile int concurrencyLimit;
+      volatile int deduplicated;
+      volatile long deduplicatedBytes;
       volatile Throwable lastError;
+      volatile int received;
+      volatile long receivedBytes;
+      final long startTime = System.currentTimeMillis();
       final Map<String, String> inflight = new ConcurrentHashMap<>();
+      Proxy proxy;
 
       @Override
       public String getProfileId() {
@@ -80,6 +211,86 @@ public class ProxyMojo extends AbstractMojo {
         return errors;
       }
       @Override
+      public int getRetryCount() {
+        return retries;
+      }
+      @Override
+      public int getAbandonedCount() {
+        return abandoned;
+      }
+      @Override
+      public String getCircuitBreakerState() {
+        return circuitBreakerState;
+      }
+      @Override
+      public int getDeduplicatedCount() {
+        return deduplicated;
+      }
+      @Override
+      public long getDeduplicatedBytes() {
+        return deduplicatedBytes;
+      }
+      @Override
+      public int getConcurrencyLimit() {
+        return concurrencyLimit;
+      }
+      @Override
+      public double getRequestRateLimit() {
+        return proxy.getRequestRate();
+      }
+      @Override
+      public void setRequestRateLimit(double limit) {
+        proxy.setRequestRate(limit);
+      }
+      @Override
+      public long getBandwidthLimit() {
+        return proxy.getBandwidth();
+      }
+      @Override
+      public void setBandwidthLimit(long limit) {
+        proxy.setBandwidth(limit);
+      }
+      @Override
+      public String getAdmissionState() {
+        return proxy.getAdmissionState();
+      }
+      @Override
+      public int getBacklogCount() {
+        return proxy.getBacklogCount();
+      }
+      @Override
+      public long getBacklogBytes() {
+        return proxy.getBacklogBytes();
+      }
+      @Override
+      public double getBytesReceivedRate() {
+        return proxy.getMetrics().getBytesReceivedRate();
+      }
+      @Override
+      public double getBytesSentRate() {
+        return proxy.getMetrics().getBytesSentRate();
+      }
+      @Override
+      public long getPendingBytes() {
+        return proxy.getMetrics().getPendingBytes();
+      }
+      @Override
+      public Map<String, Integer> getQueueDepth() {
+        return proxy.getMetrics().getQueueDepth();
+      }
+      @Override
+      public Map<String, Long> getQueueWait() {
+        return ProxyMetrics.summary(proxy.getMetrics().getQueueWait());
+      }
+      @Override
+      public Map<String, Long> getUpstreamResponseTime() {
+        return ProxyMetrics.summary(proxy.getMetrics().getUpstreamResponseTime());
+      }
+      @Override
+      public Map<String, Long> getUploadDuration() {
+        return ProxyMetrics.summary(proxy.getMetrics().getUploadDuration());
+      }
+      @Override
       public List<String> getInProgress() {
         return new ArrayList<>(inflight.keySet());
       }
@@ -88,13 +299,28 @@ public class ProxyMojo extends AbstractMojo {
         return lastError;
       }
       @Override
+      public boolean drain(long timeout) {
+        try {
+          return proxy.drain().toCompletionStage().toCompletableFuture().get(timeout, TimeUnit.MILLISECONDS).isSuccess();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        } catch (Exception e) {
+          return false;
+        }
+      }
+      @Override
       public void onStagingCreate(String profileId) {
         System.out.println("Creating staging repo for " + profileId);
       }
       @Override
       public void onStagingSucceded(String profileId, String repoId) {
         System.out.println("Created staging repo " + repoId + " for " + profileId);
-        repositoryId = repoId;
+        if (profileId.equals(stagingProfileId)) {
+          repositoryId = repoId;
+        } else {
+          registerMBean(new ProfileMonitor(profileId, proxyPort, repoId, proxy, this), ",profile=" + ObjectName.quote(profileId));
+        }
       }
       @Override
       public void onStagingFailed(String profileId, Throwable cause) {
@@ -102,55 +328,301 @@ public class ProxyMojo extends AbstractMojo {
         cause.printStackTrace();
       }
       @Override
+      public synchronized void onResourceReceived(String uri, long bytes) {
+        received++;
+        receivedBytes += bytes;
+      }
+      @Override
       public void onResourceCreate(String uri) {
         inflight.put(uri, uri);
         report();
       }
       @Override
-      public void onResourceSucceeded(String uri) {
+      public synchronized void onResourceSucceeded(String uri) {
+        sent++;
         inflight.remove(uri);
         report();
       }
       @Override
-      public void onResourceFailed(String uri, Throwable cause) {
+      public synchronized void onResourceFailed(String uri, Throwable cause) {
         errors++;
+        lastError = cause;
         inflight.remove(uri);
         cause.printStackTrace();
         report();
       }
+      @Override
+      public synchronized void onResourceRetry(String uri, int attempt, long delay) {
+        retries++;
+      }
+      @Override
+      public synchronized void onResourceAbandoned(String uri, int attempts) {
+        abandoned++;
+        System.out.println("Abandoned " + uri + " after " + attempts + " attempts");
+      }
+      @Override
+      public synchronized void onResourceDeduplicated(String uri, long bytes) {
+        deduplicated++;
+        deduplicatedBytes += bytes;
+      }
+      @Override
+      public void onCircuitBreakerStateChange(String state) {
+        circuitBreakerState = state;
+        System.out.println("Circuit breaker " + state);
+      }
+      @Override
+      public void onAdmissionStateChange(String state) {
+        System.out.println("Admission " + state);
+      }
+      @Override
+      public void onConcurrencyChange(int limit) {
+        concurrencyLimit = limit;
+      }
       private void report() {
         System.out.println("In progress " + inflight.size());
       }
+      private void summary(Proxy.DrainResult result) {
+        System.out.println("Drained " + received + " resources (" + receivedBytes + " bytes) with " + sent + " uploads, " +
+          result + " in " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+      }
     }
 
     ProxyMonitor monitor = new ProxyMonitor();
-    try {
-      StandardMBean mbean = new StandardMBean(monitor, ProxyMBean.class);
-      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
-      server.registerMBean(mbean, new ObjectName("com.julienviet:type=StagingProxy,port=" + proxyPort));
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-
     Proxy proxy = new Proxy(new ProxyOptions()
         .setPort(proxyPort)
+        .setInstances(proxyInstances)
         .setStagingProfileId(stagingProfileId)
+        .setStagingHost(stagingHost)
+        .setStagingPort(stagingPort)
+        .setStagingSsl(stagingSsl)
         .setStagingUsername(stagingUsername)
-        .setStagingPassword(stagingPassword), monitor);
+        .setStagingPassword(stagingPassword)
+        .setStagingMaxPoolSize(proxyMaxPoolSize)
+        .setStagingAdaptiveConcurrency(proxyAdaptiveConcurrency)
+        .setStagingHttp2(proxyHttp2)
+        .setStagingHttp2MultiplexingLimit(proxyHttp2MultiplexingLimit)
+        .setStagingIdleTimeout(proxyIdleTimeout)
+        .setStagingRequestRate(proxyRequestRate)
+        .setStagingBandwidth(proxyBandwidth)
+        .setAdmissionHighBytes(proxyAdmissionHighBytes)
+        .setAdmissionLowBytes(proxyAdmissionLowBytes)
+        .setAdmissionHighCount(proxyAdmissionHighCount)
+        .setAdmissionLowCount(proxyAdmissionLowCount)
+        .setAdmissionRetryAfter(proxyAdmissionRetryAfter)
+        .setRetryMaxAttempts(proxyRetryMaxAttempts)
+        .setRetryInitialDelay(proxyRetryInitialDelay)
+        .setRetryMaxDelay(proxyRetryMaxDelay)
+        .setBreakerFailureRatio(proxyBreakerFailureRatio)
+        .setBreakerOpenDelay(proxyBreakerOpenDelay)
+        .setSchedulingPolicy(proxySchedulingPolicy)
+        .setSchedulingMetadataLast(proxySchedulingMetadataLast)
+        .setJournalDirectory(proxyJournalDirectory)
+        .setStoreMemoryBudget(proxyMemoryBudget)
+        .setStoreSpillThreshold(proxySpillThreshold)
+        .setStoreDirectory(proxyStoreDirectory)
+        .setStoreEvictUploaded(proxyEvictUploaded)
+        .setStreamingThreshold(proxyStreamingThreshold)
+        .setMetricsEndpoint(proxyMetricsEndpoint)
+        .setTraceBufferSize(proxyTraceBufferSize)
+        .setTraceFile(proxyTraceFile)
+        .setProfileRouting(proxyProfileRouting)
+        .setBundleUpload(proxyBundleUpload)
+        .setBundleEndpoint(proxyBundleEndpoint)
+        .setBundleMaxSize(proxyBundleMaxSize)
+        .setBundleMaxEntrySize(proxyBundleMaxEntrySize)
+        .setBundleMaxDelay(proxyBundleMaxDelay), monitor);
+    monitor.proxy = proxy;
+
+    registerMBean(monitor, "");
 
     CompletableFuture<String> sync = vertx
             .deployVerticle(proxy)
             .toCompletionStage()
             .toCompletableFuture();
 
+    AtomicReference<Proxy.DrainResult> drained = new AtomicReference<>();
     try {
       sync.get();
       System.out.println("Proxy started, you can deploy to http://localhost:" + proxyPort + "");
       CountDownLatch latch = new CountDownLatch(1);
+      if (proxyExitIdleTimeout > 0) {
+        // Exit once drained and idle, a PUT still being received keeps the proxy busy
+        AtomicBoolean draining = new AtomicBoolean();
+        BooleanSupplier idle = () -> proxy.getIngestCount() == 0 && System.currentTimeMillis() - proxy.getLastActivity() >= proxyExitIdleTimeout;
+        vertx.setPeriodic(1000, id -> {
+          if (idle.getAsBoolean() && draining.compareAndSet(false, true)) {
+            proxy.drain().onComplete(ar -> {
+              if (ar.succeeded() && idle.getAsBoolean()) {
+                monitor.summary(ar.result());
+                drained.set(ar.result());
+                latch.countDown();
+              } else {
+                draining.set(false);
+              }
+            });
+          }
+        });
+      }
       latch.await();
     } catch (Exception ignore) {
     } finally {
-      vertx.close();
+      vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+    Proxy.DrainResult result = drained.get();
+    if (result != null && !result.isSuccess()) {
+      throw new MojoFailureException("Drained with " + result);
+    }
+  }
+
+  private void registerMBean(ProxyMBean monitor, String properties) {
+    try {
+      StandardMBean mbean = new StandardMBean(monitor, ProxyMBean.class);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(mbean, new ObjectName("com.julienviet:type=StagingProxy,port=" + proxyPort + properties));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Monitors a profile routed by the proxy, the upstream concurrency, the circuit breaker and the traffic shaping are
+   * shared by the profiles.
+   */
+  private static class ProfileMonitor implements ProxyMBean {
+
+    private final String profileId;
+    private final int port;
+    private final String repositoryId;
+    private final Proxy proxy;
+    private final ProxyMBean parent;
+
+    ProfileMonitor(String profileId, int port, String repositoryId, Proxy proxy, ProxyMBean parent) {
+      this.profileId = profileId;
+      this.port = port;
+      this.repositoryId = repositoryId;
+      this.proxy = proxy;
+      this.parent = parent;
+    }
+
+    private ProxyMetrics metrics() {
+      return proxy.getMetrics(profileId);
+    }
+
+    @Override
+    public String getProfileId() {
+      return profileId;
+    }
+    @Override
+    public int getPort() {
+      return port;
+    }
+    @Override
+    public String getRepositoryId() {
+      return repositoryId;
+    }
+    @Override
+    public int getSentCount() {
+      return (int) metrics().getSucceeded();
+    }
+    @Override
+    public int getInProgressCount() {
+      return metrics().getInProgress().size();
+    }
+    @Override
+    public int getErrorCount() {
+      return (int) metrics().getFailed();
+    }
+    @Override
+    public int getRetryCount() {
+      return (int) metrics().getRetries();
+    }
+    @Override
+    public int getAbandonedCount() {
+      return (int) metrics().getAbandoned();
+    }
+    @Override
+    public String getCircuitBreakerState() {
+      return parent.getCircuitBreakerState();
+    }
+    @Override
+    public int getDeduplicatedCount() {
+      return (int) metrics().getDeduplicated();
+    }
+    @Override
+    public long getDeduplicatedBytes() {
+      return metrics().getDeduplicatedBytes();
+    }
+    @Override
+    public int getConcurrencyLimit() {
+      return parent.getConcurrencyLimit();
+    }
+    @Override
+    public double getRequestRateLimit() {
+      return parent.getRequestRateLimit();
+    }
+    @Override
+    public void setRequestRateLimit(double limit) {
+      parent.setRequestRateLimit(limit);
+    }
+    @Override
+    public long getBandwidthLimit() {
+      return parent.getBandwidthLimit();
+    }
+    @Override
+    public void setBandwidthLimit(long limit) {
+      parent.setBandwidthLimit(limit);
+    }
+    @Override
+    public String getAdmissionState() {
+      return parent.getAdmissionState();
+    }
+    @Override
+    public int getBacklogCount() {
+      return parent.getBacklogCount();
+    }
+    @Override
+    public long getBacklogBytes() {
+      return parent.getBacklogBytes();
+    }
+    @Override
+    public double getBytesReceivedRate() {
+      return metrics().getBytesReceivedRate();
+    }
+    @Override
+    public double getBytesSentRate() {
+      return metrics().getBytesSentRate();
+    }
+    @Override
+    public long getPendingBytes() {
+      return metrics().getPendingBytes();
+    }
+    @Override
+    public Map<String, Integer> getQueueDepth() {
+      return metrics().getQueueDepth();
+    }
+    @Override
+    public Map<String, Long> getQueueWait() {
+      return ProxyMetrics.summary(metrics().getQueueWait());
+    }
+    @Override
+    public Map<String, Long> getUpstreamResponseTime() {
+      return ProxyMetrics.summary(metrics().getUpstreamResponseTime());
+    }
+    @Override
+    public Map<String, Long> getUploadDuration() {
+      return ProxyMetrics.summary(metrics().getUploadDuration());
+    }
+    @Override
+    public List<String> getInProgress() {
+      return metrics().getInProgress();
+    }
+    @Override
+    public Throwable getLastError() {
+      return metrics().getLastError();
+    }
+    @Override
+    public boolean drain(long timeout) {
+      return parent.drain(timeout);
     }
   }
 }
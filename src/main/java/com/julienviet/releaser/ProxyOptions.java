@@ -8,12 +8,49 @@ public class ProxyOptions {
   private boolean stagingPipelining = true;
   private boolean stagingKeepAlive = true;
   private int stagingPipeliningLimit = 10;
+  private boolean stagingHttp2;
+  private int stagingHttp2MultiplexingLimit = 100;
   private int stagingMaxPoolSize = 5;
+  private boolean stagingAdaptiveConcurrency;
+  private long stagingIdleTimeout;
+  private double stagingRequestRate;
+  private long stagingBandwidth;
   private String stagingProfileId;
   private String stagingUsername;
   private String stagingPassword;
   private int port;
+  private int instances = 1;
   private String repositoryId;
+  private long storeMemoryBudget = 128 * 1024 * 1024;
+  private long storeSpillThreshold = 1024 * 1024;
+  private String storeDirectory;
+  private boolean storeEvictUploaded;
+  private long streamingThreshold = 8 * 1024 * 1024;
+  private int retryMaxAttempts = 50;
+  private long retryInitialDelay = 100;
+  private long retryMaxDelay = 30000;
+  private double breakerFailureRatio = 0.5D;
+  private int breakerMinRequests = 20;
+  private long breakerOpenDelay = 10000;
+  private SchedulingPolicy schedulingPolicy = SchedulingPolicy.SMALL_FIRST;
+  private boolean schedulingMetadataLast = true;
+  private int schedulingQueueSize = 10000;
+  private String journalDirectory;
+  private long journalSyncInterval = 5;
+  private boolean metricsEndpoint;
+  private int traceBufferSize;
+  private String traceFile;
+  private boolean profileRouting;
+  private boolean bundleUpload;
+  private String bundleEndpoint = "/service/local/staging/bundleByRepositoryId/{repositoryId}";
+  private long bundleMaxSize = 4 * 1024 * 1024;
+  private long bundleMaxEntrySize = 64 * 1024;
+  private long bundleMaxDelay = 100;
+  private long admissionHighBytes;
+  private long admissionLowBytes;
+  private int admissionHighCount;
+  private int admissionLowCount;
+  private int admissionRetryAfter;
 
   public String getStagingHost() {
     return stagingHost;
@@ -69,6 +106,24 @@ public class ProxyOptions {
     return this;
   }
 
+  public boolean isStagingHttp2() {
+    return stagingHttp2;
+  }
+
+  public ProxyOptions setStagingHttp2(boolean stagingHttp2) {
+    this.stagingHttp2 = stagingHttp2;
+    return this;
+  }
+
+  public int getStagingHttp2MultiplexingLimit() {
+    return stagingHttp2MultiplexingLimit;
+  }
+
+  public ProxyOptions setStagingHttp2MultiplexingLimit(int stagingHttp2MultiplexingLimit) {
+    this.stagingHttp2MultiplexingLimit = stagingHttp2MultiplexingLimit;
+    return this;
+  }
+
   public int getStagingMaxPoolSize() {
     return stagingMaxPoolSize;
   }
@@ -78,6 +133,42 @@ public class ProxyOptions {
     return this;
   }
 
+  public boolean isStagingAdaptiveConcurrency() {
+    return stagingAdaptiveConcurrency;
+  }
+
+  public ProxyOptions setStagingAdaptiveConcurrency(boolean stagingAdaptiveConcurrency) {
+    this.stagingAdaptiveConcurrency = stagingAdaptiveConcurrency;
+    return this;
+  }
+
+  public long getStagingIdleTimeout() {
+    return stagingIdleTimeout;
+  }
+
+  public ProxyOptions setStagingIdleTimeout(long stagingIdleTimeout) {
+    this.stagingIdleTimeout = stagingIdleTimeout;
+    return this;
+  }
+
+  public double getStagingRequestRate() {
+    return stagingRequestRate;
+  }
+
+  public ProxyOptions setStagingRequestRate(double stagingRequestRate) {
+    this.stagingRequestRate = stagingRequestRate;
+    return this;
+  }
+
+  public long getStagingBandwidth() {
+    return stagingBandwidth;
+  }
+
+  public ProxyOptions setStagingBandwidth(long stagingBandwidth) {
+    this.stagingBandwidth = stagingBandwidth;
+    return this;
+  }
+
   public String getStagingProfileId() {
     return stagingProfileId;
   }
@@ -114,6 +205,15 @@ public class ProxyOptions {
     return this;
   }
 
+  public int getInstances() {
+    return instances;
+  }
+
+  public ProxyOptions setInstances(int instances) {
+    this.instances = instances;
+    return this;
+  }
+
   public String getRepositoryId() {
     return repositoryId;
   }
@@ -122,4 +222,274 @@ public class ProxyOptions {
     this.repositoryId = repositoryId;
     return this;
   }
+
+  public long getStoreMemoryBudget() {
+    return storeMemoryBudget;
+  }
+
+  public ProxyOptions setStoreMemoryBudget(long storeMemoryBudget) {
+    this.storeMemoryBudget = storeMemoryBudget;
+    return this;
+  }
+
+  public long getStoreSpillThreshold() {
+    return storeSpillThreshold;
+  }
+
+  public ProxyOptions setStoreSpillThreshold(long storeSpillThreshold) {
+    this.storeSpillThreshold = storeSpillThreshold;
+    return this;
+  }
+
+  public String getStoreDirectory() {
+    return storeDirectory;
+  }
+
+  public ProxyOptions setStoreDirectory(String storeDirectory) {
+    this.storeDirectory = storeDirectory;
+    return this;
+  }
+
+  public boolean isStoreEvictUploaded() {
+    return storeEvictUploaded;
+  }
+
+  public ProxyOptions setStoreEvictUploaded(boolean storeEvictUploaded) {
+    this.storeEvictUploaded = storeEvictUploaded;
+    return this;
+  }
+
+  public long getStreamingThreshold() {
+    return streamingThreshold;
+  }
+
+  public ProxyOptions setStreamingThreshold(long streamingThreshold) {
+    this.streamingThreshold = streamingThreshold;
+    return this;
+  }
+
+  public int getRetryMaxAttempts() {
+    return retryMaxAttempts;
+  }
+
+  public ProxyOptions setRetryMaxAttempts(int retryMaxAttempts) {
+    this.retryMaxAttempts = retryMaxAttempts;
+    return this;
+  }
+
+  public long getRetryInitialDelay() {
+    return retryInitialDelay;
+  }
+
+  public ProxyOptions setRetryInitialDelay(long retryInitialDelay) {
+    this.retryInitialDelay = retryInitialDelay;
+    return this;
+  }
+
+  public long getRetryMaxDelay() {
+    return retryMaxDelay;
+  }
+
+  public ProxyOptions setRetryMaxDelay(long retryMaxDelay) {
+    this.retryMaxDelay = retryMaxDelay;
+    return this;
+  }
+
+  public double getBreakerFailureRatio() {
+    return breakerFailureRatio;
+  }
+
+  public ProxyOptions setBreakerFailureRatio(double breakerFailureRatio) {
+    this.breakerFailureRatio = breakerFailureRatio;
+    return this;
+  }
+
+  public int getBreakerMinRequests() {
+    return breakerMinRequests;
+  }
+
+  public ProxyOptions setBreakerMinRequests(int breakerMinRequests) {
+    this.breakerMinRequests = breakerMinRequests;
+    return this;
+  }
+
+  public long getBreakerOpenDelay() {
+    return breakerOpenDelay;
+  }
+
+  public ProxyOptions setBreakerOpenDelay(long breakerOpenDelay) {
+    this.breakerOpenDelay = breakerOpenDelay;
+    return this;
+  }
+
+  public SchedulingPolicy getSchedulingPolicy() {
+    return schedulingPolicy;
+  }
+
+  public ProxyOptions setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+    this.schedulingPolicy = schedulingPolicy;
+    return this;
+  }
+
+  public boolean isSchedulingMetadataLast() {
+    return schedulingMetadataLast;
+  }
+
+  public ProxyOptions setSchedulingMetadataLast(boolean schedulingMetadataLast) {
+    this.schedulingMetadataLast = schedulingMetadataLast;
+    return this;
+  }
+
+  public int getSchedulingQueueSize() {
+    return schedulingQueueSize;
+  }
+
+  public ProxyOptions setSchedulingQueueSize(int schedulingQueueSize) {
+    this.schedulingQueueSize = schedulingQueueSize;
+    return this;
+  }
+
+  public String getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  public ProxyOptions setJournalDirectory(String journalDirectory) {
+    this.journalDirectory = journalDirectory;
+    return this;
+  }
+
+  public long getJournalSyncInterval() {
+    return journalSyncInterval;
+  }
+
+  public ProxyOptions setJournalSyncInterval(long journalSyncInterval) {
+    this.journalSyncInterval = journalSyncInterval;
+    return this;
+  }
+
+  public boolean isMetricsEndpoint() {
+    return metricsEndpoint;
+  }
+
+  public ProxyOptions setMetricsEndpoint(boolean metricsEndpoint) {
+    this.metricsEndpoint = metricsEndpoint;
+    return this;
+  }
+
+  public int getTraceBufferSize() {
+    return traceBufferSize;
+  }
+
+  public ProxyOptions setTraceBufferSize(int traceBufferSize) {
+    this.traceBufferSize = traceBufferSize;
+    return this;
+  }
+
+  public String getTraceFile() {
+    return traceFile;
+  }
+
+  public ProxyOptions setTraceFile(String traceFile) {
+    this.traceFile = traceFile;
+    return this;
+  }
+
+  public boolean isProfileRouting() {
+    return profileRouting;
+  }
+
+  public ProxyOptions setProfileRouting(boolean profileRouting) {
+    this.profileRouting = profileRouting;
+    return this;
+  }
+
+  public boolean isBundleUpload() {
+    return bundleUpload;
+  }
+
+  public ProxyOptions setBundleUpload(boolean bundleUpload) {
+    this.bundleUpload = bundleUpload;
+    return this;
+  }
+
+  public String getBundleEndpoint() {
+    return bundleEndpoint;
+  }
+
+  public ProxyOptions setBundleEndpoint(String bundleEndpoint) {
+    this.bundleEndpoint = bundleEndpoint;
+    return this;
+  }
+
+  public long getBundleMaxSize() {
+    return bundleMaxSize;
+  }
+
+  public ProxyOptions setBundleMaxSize(long bundleMaxSize) {
+    this.bundleMaxSize = bundleMaxSize;
+    return this;
+  }
+
+  public long getBundleMaxEntrySize() {
+    return bundleMaxEntrySize;
+  }
+
+  public ProxyOptions setBundleMaxEntrySize(long bundleMaxEntrySize) {
+    this.bundleMaxEntrySize = bundleMaxEntrySize;
+    return this;
+  }
+
+  public long getBundleMaxDelay() {
+    return bundleMaxDelay;
+  }
+
+  public ProxyOptions setBundleMaxDelay(long bundleMaxDelay) {
+    this.bundleMaxDelay = bundleMaxDelay;
+    return this;
+  }
+
+  public long getAdmissionHighBytes() {
+    return admissionHighBytes;
+  }
+
+  public ProxyOptions setAdmissionHighBytes(long admissionHighBytes) {
+    this.admissionHighBytes = admissionHighBytes;
+    return this;
+  }
+
+  public long getAdmissionLowBytes() {
+    return admissionLowBytes;
+  }
+
+  public ProxyOptions setAdmissionLowBytes(long admissionLowBytes) {
+    this.admissionLowBytes = admissionLowBytes;
+    return this;
+  }
+
+  public int getAdmissionHighCount() {
+    return admissionHighCount;
+  }
+
+  public ProxyOptions setAdmissionHighCount(int admissionHighCount) {
+    this.admissionHighCount = admissionHighCount;
+    return this;
+  }
+
+  public int getAdmissionLowCount() {
+    return admissionLowCount;
+  }
+
+  public ProxyOptions setAdmissionLowCount(int admissionLowCount) {
+    this.admissionLowCount = admissionLowCount;
+    return this;
+  }
+
+  public int getAdmissionRetryAfter() {
+    return admissionRetryAfter;
+  }
+
+  public ProxyOptions setAdmissionRetryAfter(int admissionRetryAfter) {
+    this.admissionRetryAfter = admissionRetryAfter;
+    return this;
+  }
 }
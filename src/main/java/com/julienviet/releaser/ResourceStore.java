@@ -0,0 +1,117 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Stores the content of the resources accepted by the proxy.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public interface ResourceStore {
+
+  /**
+   * Create the default store, its directory is created by this call, so it should not be called on an event loop.
+   */
+  static ResourceStore create(Vertx vertx, ProxyOptions options) {
+    return new DefaultResourceStore(vertx, options);
+  }
+
+  /**
+   * Store the {@code body} of the resource at {@code path}.
+   *
+   * @return a future completed when the content is stored
+   */
+  Future<Content> store(String path, Buffer body);
+
+  /**
+   * Open a writer for streaming the body of the resource at {@code path}.
+   *
+   * @return a future completed with the writer
+   */
+  Future<ContentWriter> open(String path);
+
+  /**
+   * Restore a content previously stored in {@code file}.
+   *
+   * @return a future completed with the content or {@code null} when the file does not exist anymore
+   */
+  Future<Content> restore(String file, long length, String digest);
+
+  /**
+   * @return the number of bytes held in memory
+   */
+  long getMemoryUsage();
+
+  /**
+   * @return the number of bytes held on disk
+   */
+  long getDiskUsage();
+
+  /**
+   * Release all the contents of this store.
+   *
+   * @return a future completed when the contents are released
+   */
+  Future<Void> close();
+
+  interface Content {
+
+    long length();
+
+    /**
+     * @return the hex encoded SHA-256 digest of this content, computed once when it is stored
+     */
+    String digest();
+
+    /**
+     * @return the file holding this content or {@code null} when it is held in memory
+     */
+    String file();
+
+    /**
+     * @return whether this content has been released
+     */
+    boolean isReleased();
+
+    /**
+     * Serve this content, file contents are sent with zero-copy.
+     */
+    Future<Void> send(HttpServerResponse response);
+
+    /**
+     * Read this content in memory.
+     */
+    Future<Buffer> read();
+
+    /**
+     * Upload this content, file contents are read in chunks by the event loop.
+     */
+    Future<HttpClientResponse> send(HttpClientRequest request);
+
+    /**
+     * Release the memory or the file held by this content.
+     */
+    void release();
+
+  }
+
+  interface ContentWriter extends WriteStream<Buffer> {
+
+    /**
+     * @return a future completed with the content when this writer is ended
+     */
+    Future<Content> content();
+
+    /**
+     * Discard what has been written so far.
+     */
+    void abort();
+
+  }
+}
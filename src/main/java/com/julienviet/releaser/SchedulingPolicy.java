@@ -0,0 +1,25 @@
+package com.julienviet.releaser;
+
+/**
+ * The order in which pending uploads are dispatched to the staging repository.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public enum SchedulingPolicy {
+
+  /**
+   * Upload in the order resources were received.
+   */
+  FIFO,
+
+  /**
+   * Upload small resources (poms, checksums, signatures) before the others, each class in the order it was received.
+   */
+  SMALL_FIRST,
+
+  /**
+   * Upload the shortest resources first.
+   */
+  SHORTEST_FIRST
+
+}
@@ -0,0 +1,20 @@
+package com.julienviet.releaser;
+
+/**
+ * The backend executing the SCM operations of the commit and tag mojos.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public enum ScmEngine {
+
+  /**
+   * Execute the maven-scm-plugin goals for each module, each goal forks a {@code git} process.
+   */
+  PLUGIN,
+
+  /**
+   * Execute the git operations in process with JGit, the modules sharing a repository get a single commit.
+   */
+  JGIT
+
+}
@@ -1,18 +1,20 @@
 package com.julienviet.releaser;
 
-import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugin.descriptor.MojoDescriptor;
 import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
-import org.codehaus.plexus.util.xml.Xpp3DomUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
@@ -22,42 +24,60 @@ public class TagMojo extends AbstractReleaserMojo {
 
   @Override
   protected void execute(List<MavenProject> projects) throws MojoExecutionException, MojoFailureException {
+    if (scmEngine == ScmEngine.JGIT) {
+      try (GitEngine engine = new GitEngine()) {
+        executeRepositories(engine, projects, (git, repository, group) -> {
+          // The modules of a repository sharing a version share its tag
+          Set<String> versions = new LinkedHashSet<>();
+          for (MavenProject project : group) {
+            versions.add(project.getArtifact().getVersion());
+          }
+          for (String version : versions) {
+            git.tag(repository, version, "Tagging " + version);
+            getLog().info("Tagged " + repository.getWorkTree() + " with " + version);
+          }
+        });
+      }
+      return;
+    }
+    PluginDescriptor pluginDesc;
+    try {
+      pluginDesc = loadScmPlugin();
+    } catch (Exception e) {
+      throw new MojoExecutionException("Could not load the maven-scm-plugin", e);
+    }
+    // The modules of a git work tree sharing a version share its tag, so it is created once like with JGit
+    Map<List<Object>, MavenProject> tagged = new LinkedHashMap<>();
     for (MavenProject project : projects) {
+      MavenProject first = tagged.putIfAbsent(Arrays.asList(workTree(project), project.getArtifact().getVersion()), project);
+      if (first != null) {
+        getLog().info("Skipped " + project.getArtifactId() + ", tagged with " + first.getArtifactId());
+      }
+    }
+    List<MavenProject> tagging = new ArrayList<>(tagged.values());
+    executeModules(tagging, (session, project) -> {
 
-      try {
-
-        Plugin plugin = new Plugin();
-        plugin.setGroupId("org.apache.maven.plugins");
-        plugin.setArtifactId("maven-scm-plugin");
-        plugin.setVersion("1.9.2");
-        PluginDescriptor pluginDesc = pluginManager.loadPlugin(plugin, pluginRepos, repoSession);
-
-        // Get version
-        String version = project.getArtifact().getVersion();
+      // Get version
+      String version = project.getArtifact().getVersion();
 
-        // Add modified pom.xml
-        MojoDescriptor tagDesc = pluginDesc.getMojo("tag");
-        Xpp3Dom tagConfDom = new Xpp3Dom("configuration");
-        Xpp3Dom pushChangesDom = new Xpp3Dom("pushChanges");
-        pushChangesDom.setValue("false");
-        Xpp3Dom basedirDom = new Xpp3Dom("basedir");
-        basedirDom.setValue(project.getBasedir().getAbsolutePath());
-        Xpp3Dom messageDom = new Xpp3Dom("message");
-        messageDom.setValue("Tagging " + version);
-        Xpp3Dom tagDom = new Xpp3Dom("tag");
-        tagDom.setValue(version);
-        tagConfDom.addChild(pushChangesDom);
-        tagConfDom.addChild(basedirDom);
-        tagConfDom.addChild(messageDom);
-        tagConfDom.addChild(tagDom);
-        MojoExecution tagExec = new MojoExecution(tagDesc, Xpp3DomUtils.mergeXpp3Dom(tagConfDom, toXpp3Dom(tagDesc.getMojoConfiguration())));
+      // Add modified pom.xml
+      Xpp3Dom tagConfDom = new Xpp3Dom("configuration");
+      Xpp3Dom pushChangesDom = new Xpp3Dom("pushChanges");
+      pushChangesDom.setValue("false");
+      Xpp3Dom basedirDom = new Xpp3Dom("basedir");
+      basedirDom.setValue(project.getBasedir().getAbsolutePath());
+      Xpp3Dom messageDom = new Xpp3Dom("message");
+      messageDom.setValue("Tagging " + version);
+      Xpp3Dom tagDom = new Xpp3Dom("tag");
+      tagDom.setValue(version);
+      tagConfDom.addChild(pushChangesDom);
+      tagConfDom.addChild(basedirDom);
+      tagConfDom.addChild(messageDom);
+      tagConfDom.addChild(tagDom);
+      MojoExecution tagExec = mojoExecution(pluginDesc, "tag", tagConfDom);
 
-        // Execute mojos
-        mavenSession.setCurrentProject(project);
-        pluginManager.executeMojo(mavenSession, tagExec);
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
+      // Execute mojos
+      pluginManager.executeMojo(session, tagExec);
+    });
   }
 }
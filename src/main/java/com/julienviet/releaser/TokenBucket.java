@@ -0,0 +1,70 @@
+package com.julienviet.releaser;
+
+/**
+ * A token bucket refilled at a constant rate holding at most one second of tokens.
+ *
+ * A reservation larger than the available tokens is granted immediately and puts the bucket in debt, the next
+ * reservations wait until the debt is paid back, so a large upload does not wait for a bucket that could never hold it.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class TokenBucket {
+
+  private double rate;
+  private double tokens;
+  private long last = System.nanoTime();
+  private long delayed;
+
+  /**
+   * @param rate the tokens per second, a rate that is not positive is unlimited
+   */
+  TokenBucket(double rate) {
+    this.rate = rate;
+    this.tokens = Math.max(0, rate);
+  }
+
+  synchronized double getRate() {
+    return rate;
+  }
+
+  /**
+   * @return the number of reservations that had to wait
+   */
+  synchronized long getDelayed() {
+    return delayed;
+  }
+
+  synchronized void setRate(double rate) {
+    refill(System.nanoTime());
+    // An unlimited bucket was full
+    tokens = this.rate > 0 ? Math.min(tokens, Math.max(0, rate)) : Math.max(0, rate);
+    this.rate = rate;
+  }
+
+  /**
+   * Reserve {@code amount} tokens.
+   *
+   * @return the delay in nanoseconds before the tokens can be used
+   */
+  synchronized long reserve(long amount) {
+    if (rate <= 0) {
+      return 0L;
+    }
+    long now = System.nanoTime();
+    refill(now);
+    // Wait for the debt of the previous reservations, the amount is granted once it is paid back
+    long delay = tokens < 0 ? (long) (-tokens / rate * 1_000_000_000D) : 0L;
+    if (delay > 0) {
+      delayed++;
+    }
+    tokens -= amount;
+    return delay;
+  }
+
+  private void refill(long now) {
+    if (rate > 0) {
+      tokens = Math.min(rate, tokens + (now - last) * rate / 1_000_000_000D);
+    }
+    last = now;
+  }
+}
@@ -0,0 +1,136 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Orders the pending uploads according to a {@link SchedulingPolicy} and dispatches them in the upstream slots
+ * granted by a {@link ConcurrencyLimiter}.
+ *
+ * Each tenant has its own queue, the slots are granted to the tenants with pending uploads in turn so a large deploy
+ * cannot starve the others.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class UploadScheduler {
+
+  static final long SMALL_THRESHOLD = 64 * 1024;
+
+  private static class Task {
+
+    final long seq;
+    final long size;
+    final boolean metadata;
+    final Promise<Void> promise = Promise.promise();
+
+    Task(long seq, long size, boolean metadata) {
+      this.seq = seq;
+      this.size = size;
+      this.metadata = metadata;
+    }
+  }
+
+  private final ConcurrencyLimiter limiter;
+  private final int capacity;
+  private final Comparator<Task> comparator;
+  private final Map<String, PriorityQueue<Task>> queues = new HashMap<>();
+  private final Deque<PriorityQueue<Task>> active = new ArrayDeque<>();
+  private final Deque<Handler<Void>> capacityWaiters = new ArrayDeque<>();
+  private int size;
+  private long seq;
+
+  UploadScheduler(ConcurrencyLimiter limiter, SchedulingPolicy policy, boolean metadataLast, int capacity) {
+    Comparator<Task> comparator;
+    switch (policy) {
+      case SMALL_FIRST:
+        comparator = Comparator.comparing(task -> task.size >= SMALL_THRESHOLD);
+        break;
+      case SHORTEST_FIRST:
+        comparator = Comparator.comparingLong(task -> task.size);
+        break;
+      default:
+        comparator = (t1, t2) -> 0;
+        break;
+    }
+    if (metadataLast) {
+      // Metadata references the artifacts, upload it after them
+      comparator = Comparator.<Task, Boolean>comparing(task -> task.metadata).thenComparing(comparator);
+    }
+    this.limiter = limiter;
+    this.capacity = capacity;
+    this.comparator = comparator.thenComparingLong(task -> task.seq);
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isFull() {
+    return size >= capacity;
+  }
+
+  /**
+   * Call {@code handler} when the queue is not full anymore.
+   */
+  void whenNotFull(Handler<Void> handler) {
+    if (isFull()) {
+      capacityWaiters.add(handler);
+    } else {
+      handler.handle(null);
+    }
+  }
+
+  /**
+   * Schedule an upload.
+   *
+   * @param tenant the tenant of the upload
+   * @param size the upload size in bytes
+   * @param metadata whether the upload is Maven metadata
+   * @return a future completed when the upload can start, the upload must then be completed with {@link #release}
+   */
+  Future<Void> schedule(String tenant, long size, boolean metadata) {
+    Task task = new Task(seq++, size, metadata);
+    PriorityQueue<Task> queue = queues.computeIfAbsent(tenant, k -> new PriorityQueue<>(comparator));
+    if (queue.isEmpty()) {
+      active.add(queue);
+    }
+    queue.add(task);
+    this.size++;
+    dispatch();
+    return task.promise.future();
+  }
+
+  /**
+   * Signal the end of an upload.
+   *
+   * @see ConcurrencyLimiter#release(long, boolean, boolean)
+   */
+  void release(long latency, boolean success, boolean overloaded) {
+    limiter.release(latency, success, overloaded);
+    dispatch();
+  }
+
+  private void dispatch() {
+    while (size > 0 && limiter.tryAcquire()) {
+      PriorityQueue<Task> queue = active.poll();
+      Task task = queue.poll();
+      size--;
+      if (!queue.isEmpty()) {
+        active.add(queue);
+      }
+      task.promise.complete();
+    }
+    Handler<Void> waiter;
+    while (!isFull() && (waiter = capacityWaiters.poll()) != null) {
+      waiter.handle(null);
+    }
+  }
+}
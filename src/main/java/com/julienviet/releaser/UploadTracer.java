@@ -0,0 +1,223 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the timeline of the uploads from the {@link Proxy.Listener} events in a ring buffer and exports it in the
+ * Chrome trace event format, to be opened with {@code chrome://tracing} or Perfetto.
+ *
+ * An upload is traced as a {@code queued} span, until it gets its turn, and a {@code request} span, from the
+ * acquisition of its upstream connection to the response. These spans are only recorded when an upload completes,
+ * the buffer keeps the most recent events. The client does not report when the first byte of a request is written,
+ * the head is written right after the connection is acquired, so the {@code request} span also stands for the time
+ * from the first byte sent to the response.
+ *
+ * The events of an upload are emitted by the event loop of its shard, the buffer is shared by the shards without lock
+ * and each event loop tracks its own uploads in progress. They are bounded by the buffer capacity, the oldest one is
+ * forgotten beyond, e.g. when its resource is superseded before its upload is created.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class UploadTracer implements Proxy.Listener {
+
+  private static final String INGEST = "ingest";
+  private static final String QUEUE = "queue";
+
+  private static class Event {
+
+    final String name;
+    final String lane;
+    final String uri;
+    final long start;
+    final long duration;
+    final Object detail;
+
+    Event(String name, String lane, String uri, long start, long duration, Object detail) {
+      this.name = name;
+      this.lane = lane;
+      this.uri = uri;
+      this.start = start;
+      this.duration = duration;
+      this.detail = detail;
+    }
+  }
+
+  private static class Upload {
+    final long queued;
+    long created;
+    long connected;
+    long response;
+    int status;
+    String connection;
+
+    Upload(long queued) {
+      this.queued = queued;
+    }
+  }
+
+  private final long origin = System.nanoTime();
+  private final AtomicReferenceArray<Event> events;
+  private final AtomicLong count = new AtomicLong();
+  private final ThreadLocal<Map<String, Upload>> uploads;
+
+  UploadTracer(int capacity) {
+    this.events = new AtomicReferenceArray<>(capacity);
+    this.uploads = ThreadLocal.withInitial(() -> new LinkedHashMap<String, Upload>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Upload> eldest) {
+        return size() > capacity;
+      }
+    });
+  }
+
+  private long now() {
+    return (System.nanoTime() - origin) / 1000;
+  }
+
+  private void add(Event event) {
+    events.set((int) (count.getAndIncrement() % events.length()), event);
+  }
+
+  @Override
+  public void onResourceReceived(String uri, long bytes) {
+    add(new Event("received", INGEST, uri, now(), -1, bytes));
+  }
+
+  @Override
+  public void onResourceQueued(String uri, long bytes) {
+    Map<String, Upload> map = uploads.get();
+    // Queued again after a retry, it becomes the most recent
+    map.remove(uri);
+    map.put(uri, new Upload(now()));
+  }
+
+  @Override
+  public void onResourceCreate(String uri) {
+    Upload upload = uploads.get().get(uri);
+    if (upload != null) {
+      upload.created = now();
+    }
+  }
+
+  @Override
+  public void onResourceSending(String uri, String connection) {
+    Upload upload = uploads.get().get(uri);
+    if (upload != null) {
+      upload.connected = now();
+      upload.connection = connection;
+    }
+  }
+
+  @Override
+  public void onResourceResponse(String uri, int status) {
+    Upload upload = uploads.get().get(uri);
+    if (upload != null) {
+      upload.response = now();
+      upload.status = status;
+    }
+  }
+
+  @Override
+  public void onResourceSucceeded(String uri) {
+    end(uri);
+  }
+
+  @Override
+  public void onResourceFailed(String uri, Throwable cause) {
+    end(uri);
+  }
+
+  @Override
+  public void onResourceRetry(String uri, int attempt, long delay) {
+    add(new Event("retry", QUEUE, uri, now(), -1, delay));
+  }
+
+  @Override
+  public void onResourceAbandoned(String uri, int attempts) {
+    uploads.get().remove(uri);
+  }
+
+  private void end(String uri) {
+    Upload upload = uploads.get().remove(uri);
+    if (upload == null || upload.created == 0) {
+      return;
+    }
+    add(new Event("queued", QUEUE, uri, upload.queued, upload.created - upload.queued, null));
+    if (upload.connected != 0) {
+      long end = upload.response != 0 ? upload.response : now();
+      add(new Event("request", "connection " + upload.connection, uri, upload.connected, end - upload.connected, upload.status));
+    }
+  }
+
+  private List<Event> snapshot() {
+    List<Event> list = new ArrayList<>();
+    long to = count.get();
+    long from = Math.max(0, to - events.length());
+    for (long i = from; i < to; i++) {
+      // A slot being written concurrently holds an older event or none yet
+      Event event = events.get((int) (i % events.length()));
+      if (event != null) {
+        list.add(event);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * @return the recorded events in the Chrome trace event format
+   */
+  JsonObject toChromeTrace() {
+    List<Event> list = snapshot();
+    list.sort(Comparator.comparingLong(event -> event.start));
+    // Spans of a lane overlap with pipelining or multiplexing, spread them on sub lanes that never overlap
+    Map<String, List<long[]>> subLanes = new LinkedHashMap<>();
+    Map<String, Integer> tids = new LinkedHashMap<>();
+    JsonArray traceEvents = new JsonArray();
+    for (Event event : list) {
+      List<long[]> ends = subLanes.computeIfAbsent(event.lane, k -> new ArrayList<>());
+      int sub = 0;
+      while (sub < ends.size() && ends.get(sub)[0] > event.start) {
+        sub++;
+      }
+      if (sub == ends.size()) {
+        ends.add(new long[1]);
+      }
+      ends.get(sub)[0] = event.start + Math.max(0, event.duration);
+      String thread = event.lane + " #" + sub;
+      Integer tid = tids.get(thread);
+      if (tid == null) {
+        tid = tids.size() + 1;
+        tids.put(thread, tid);
+        traceEvents.add(new JsonObject()
+          .put("name", "thread_name")
+          .put("ph", "M")
+          .put("pid", 1)
+          .put("tid", tid)
+          .put("args", new JsonObject().put("name", thread)));
+      }
+      JsonObject json = new JsonObject()
+        .put("name", event.name)
+        .put("cat", event.name)
+        .put("pid", 1)
+        .put("tid", tid)
+        .put("ts", event.start)
+        .put("args", new JsonObject().put("uri", event.uri).put("detail", event.detail));
+      if (event.duration >= 0) {
+        json.put("ph", "X").put("dur", event.duration);
+      } else {
+        json.put("ph", "i").put("s", "t");
+      }
+      traceEvents.add(json);
+    }
+    return new JsonObject().put("traceEvents", traceEvents).put("displayTimeUnit", "ms");
+  }
+}
@@ -0,0 +1,91 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class CircuitBreakerTest {
+
+  private Vertx vertx;
+
+  @Before
+  public void before() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void after() throws Exception {
+    vertx.close().toCompletionStage().toCompletableFuture().get(20, TimeUnit.SECONDS);
+  }
+
+  private static <T> T await(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get(20, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testProbe() throws Exception {
+    CountDownLatch halfOpen = new CountDownLatch(1);
+    CircuitBreaker breaker = new CircuitBreaker(vertx, 0.5, 2, 10, state -> {
+      if (state == CircuitBreaker.State.HALF_OPEN) {
+        halfOpen.countDown();
+      }
+    });
+    CircuitBreaker.Permit p1 = await(breaker.acquire());
+    CircuitBreaker.Permit p2 = await(breaker.acquire());
+    CircuitBreaker.Permit p3 = await(breaker.acquire());
+    breaker.record(p1, false);
+    breaker.record(p2, false);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    // Admitted before the breaker opened
+    breaker.record(p3, false);
+    Future<CircuitBreaker.Permit> w1 = breaker.acquire();
+    Future<CircuitBreaker.Permit> w2 = breaker.acquire();
+    assertTrue(halfOpen.await(20, TimeUnit.SECONDS));
+    CircuitBreaker.Permit probe = await(w1);
+    assertTrue(probe.isProbe());
+    // A late success does not close the breaker, only the probe does
+    breaker.record(p3, true);
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertFalse(w2.isComplete());
+    // The probe did not reach the server, the next upload probes
+    breaker.release(probe);
+    probe = await(w2);
+    assertTrue(probe.isProbe());
+    breaker.record(probe, true);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertFalse(await(breaker.acquire()).isProbe());
+  }
+
+  @Test
+  public void testProbeFailure() throws Exception {
+    CountDownLatch halfOpen = new CountDownLatch(2);
+    CircuitBreaker breaker = new CircuitBreaker(vertx, 0.5, 1, 10, state -> {
+      if (state == CircuitBreaker.State.HALF_OPEN) {
+        halfOpen.countDown();
+      }
+    });
+    breaker.record(await(breaker.acquire()), false);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    CircuitBreaker.Permit probe = await(breaker.acquire());
+    assertTrue(probe.isProbe());
+    breaker.record(probe, false);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    probe = await(breaker.acquire());
+    assertTrue(probe.isProbe());
+    assertTrue(halfOpen.await(20, TimeUnit.SECONDS));
+    breaker.record(probe, true);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+}
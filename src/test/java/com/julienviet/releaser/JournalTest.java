@@ -0,0 +1,121 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class JournalTest {
+
+  private Vertx vertx;
+  private File dir;
+
+  @Before
+  public void before() throws Exception {
+    vertx = Vertx.vertx();
+    dir = Files.createTempDirectory("releaser").toFile();
+  }
+
+  @After
+  public void after() throws Exception {
+    vertx.close().toCompletionStage().toCompletableFuture().get(20, TimeUnit.SECONDS);
+  }
+
+  private static <T> T await(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get(20, TimeUnit.SECONDS);
+  }
+
+  private List<String> lines() throws Exception {
+    return Files.readAllLines(new File(dir, Journal.FILE_NAME).toPath(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testAppendAfterTornLine() throws Exception {
+    File file = new File(dir, Journal.FILE_NAME);
+    Files.write(file.toPath(), "STAGING\tp1\tr1\nSTAGING\tp2\tr".getBytes(StandardCharsets.UTF_8));
+    Journal journal = new Journal(vertx, dir.getAbsolutePath(), 0);
+    assertEquals("r1", journal.getRepositoryId("p1"));
+    assertNull(journal.getRepositoryId("p2"));
+    await(journal.staging("p3", "r3"));
+    await(journal.close());
+    journal = new Journal(vertx, dir.getAbsolutePath(), 0);
+    assertEquals("r1", journal.getRepositoryId("p1"));
+    assertNull(journal.getRepositoryId("p2"));
+    assertEquals("r3", journal.getRepositoryId("p3"));
+    await(journal.close());
+  }
+
+  @Test
+  public void testCloseWaitsForFlush() throws Exception {
+    Journal journal = new Journal(vertx, dir.getAbsolutePath(), 50);
+    Future<Void> appended = journal.staging("p1", "r1");
+    await(journal.close());
+    assertTrue(appended.succeeded());
+    assertTrue(journal.staging("p2", "r2").failed());
+    assertEquals(1, lines().size());
+  }
+
+  @Test
+  public void testCheckpoint() throws Exception {
+    File uploaded = new File(dir, "uploaded.bin");
+    File pending = new File(dir, "pending.bin");
+    Files.write(uploaded.toPath(), "uploaded".getBytes(StandardCharsets.UTF_8));
+    Files.write(pending.toPath(), "pending".getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(dir, Journal.FILE_NAME).toPath(), (
+      "STAGING\tp1\tr1\n" +
+      "PUT\t/uploaded\t" + uploaded + "\t8\td1\n" +
+      "UPLOADED\t/uploaded\td1\n" +
+      "PUT\t/pending\t" + pending + "\t7\td2\n").getBytes(StandardCharsets.UTF_8));
+    Journal journal = new Journal(vertx, dir.getAbsolutePath(), 0);
+    await(journal.checkpoint());
+    // The uploaded content can still be served until the journal is closed
+    assertTrue(uploaded.exists());
+    await(journal.close());
+    assertTrue(!uploaded.exists());
+    assertTrue(pending.exists());
+    journal = new Journal(vertx, dir.getAbsolutePath(), 0);
+    assertEquals(Collections.singleton("/pending"), journal.getRecords().keySet());
+    assertEquals("r1", journal.getRepositoryId("p1"));
+    await(journal.uploaded("/pending", "d2"));
+    await(journal.checkpoint());
+    await(journal.close());
+    assertTrue(!pending.exists());
+    journal = new Journal(vertx, dir.getAbsolutePath(), 0);
+    assertTrue(journal.getRecords().isEmpty());
+    assertNull(journal.getRepositoryId("p1"));
+    assertEquals(0, lines().size());
+    await(journal.close());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    Journal journal = new Journal(vertx, dir.getAbsolutePath(), 0);
+    List<Future<Void>> appends = new ArrayList<>();
+    for (int i = 0; i < 3 * Journal.COMPACTION_THRESHOLD; i++) {
+      appends.add(journal.staging("p" + (i % 4), "r" + i));
+    }
+    await(Future.all(appends));
+    await(journal.close());
+    assertTrue(lines().size() < Journal.COMPACTION_THRESHOLD);
+    journal = new Journal(vertx, dir.getAbsolutePath(), 0);
+    assertEquals("r" + (3 * Journal.COMPACTION_THRESHOLD - 1), journal.getRepositoryId("p3"));
+    assertEquals(4, lines().size());
+    await(journal.close());
+  }
+}
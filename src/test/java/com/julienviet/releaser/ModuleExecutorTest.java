@@ -0,0 +1,124 @@
+package com.julienviet.releaser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class ModuleExecutorTest {
+
+  private static Function<String, Collection<String>> upstream(String... edges) {
+    Map<String, List<String>> map = new HashMap<>();
+    for (String edge : edges) {
+      String[] parts = edge.split("->");
+      map.computeIfAbsent(parts[1], k -> new ArrayList<>()).add(parts[0]);
+    }
+    return module -> map.getOrDefault(module, Collections.emptyList());
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    testOrder(4);
+  }
+
+  @Test
+  public void testOrderOnCallingThread() throws Exception {
+    testOrder(0);
+  }
+
+  private void testOrder(int threads) throws Exception {
+    List<String> done = new CopyOnWriteArrayList<>();
+    List<String> modules = Arrays.asList("c", "b", "a", "d");
+    ModuleExecutor.Result<String> result = new ModuleExecutor<String>(threads).execute(modules, upstream("a->b", "b->c", "a->c", "x->d"), done::add);
+    assertTrue(result.isSuccess());
+    assertEquals(modules, result.succeeded);
+    assertEquals(4, done.size());
+    assertTrue(done.indexOf("a") < done.indexOf("b"));
+    assertTrue(done.indexOf("b") < done.indexOf("c"));
+  }
+
+  @Test
+  public void testSkipDownstream() throws Exception {
+    testSkipDownstream(4);
+  }
+
+  @Test
+  public void testSkipDownstreamOnCallingThread() throws Exception {
+    testSkipDownstream(0);
+  }
+
+  private void testSkipDownstream(int threads) throws Exception {
+    RuntimeException failure = new RuntimeException();
+    List<String> done = new CopyOnWriteArrayList<>();
+    ModuleExecutor.Result<String> result = new ModuleExecutor<String>(threads).execute(Arrays.asList("a", "b", "c", "d", "e"), upstream("a->b", "b->c", "d->e"), module -> {
+      if (module.equals("a")) {
+        throw failure;
+      }
+      done.add(module);
+    });
+    assertFalse(result.isSuccess());
+    assertEquals(1, result.failed.size());
+    assertSame(failure, result.failed.get("a"));
+    assertEquals(Arrays.asList("b", "c"), result.skipped);
+    assertEquals(Arrays.asList("d", "e"), result.succeeded);
+    assertEquals(2, done.size());
+  }
+
+  @Test
+  public void testCycle() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    try {
+      new ModuleExecutor<String>(4).execute(Arrays.asList("a", "b", "c", "d"), upstream("a->b", "b->c", "c->b"), module -> executed.incrementAndGet());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    // Nothing runs when the graph has a cycle
+    assertEquals(0, executed.get());
+  }
+
+  @Test
+  public void testThreadBound() throws Exception {
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger max = new AtomicInteger();
+    CountDownLatch concurrent = new CountDownLatch(2);
+    List<Integer> modules = Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    ModuleExecutor.Result<Integer> result = new ModuleExecutor<Integer>(2).execute(modules, module -> Collections.emptyList(), module -> {
+      max.accumulateAndGet(active.incrementAndGet(), Math::max);
+      // The first two modules wait for each other
+      concurrent.countDown();
+      assertTrue(concurrent.await(20, TimeUnit.SECONDS));
+      active.decrementAndGet();
+    });
+    assertTrue(result.isSuccess());
+    assertEquals(modules, result.succeeded);
+    assertEquals(2, max.get());
+  }
+
+  @Test
+  public void testCallingThread() throws Exception {
+    Thread current = Thread.currentThread();
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+    ModuleExecutor.Result<String> result = new ModuleExecutor<String>(0).execute(Arrays.asList("a", "b", "c"), upstream("a->b"), module -> threads.add(Thread.currentThread()));
+    assertTrue(result.isSuccess());
+    assertEquals(Arrays.asList(current, current, current), threads);
+  }
+}
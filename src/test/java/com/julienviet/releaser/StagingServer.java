@@ -0,0 +1,363 @@
+package com.julienviet.releaser;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * An in-process stand-in for the Nexus staging API, it creates staging repositories and accepts uploads without
+ * retaining their content, so the proxy can be exercised offline.
+ *
+ * Uploads can be degraded with {@link Fault} rules: the first rule matching the path of an upload applies.
+ *
+ * It also accepts zip archives of resources on the bundle endpoint, the default {@link ProxyOptions#getBundleEndpoint()},
+ * a bundle fails when the errors of a fault hit any of its entries and is delayed by the slowest of its entries.
+ *
+ * {@link #main(String[])} runs it standalone, so a proxy started by the {@code proxy} mojo can target it.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class StagingServer {
+
+  private static final Pattern PROFILE_URL = Pattern.compile("/service/local/staging/profiles/([^/]+)/start");
+  private static final Pattern RESOURCE_URL = Pattern.compile("/service/local/staging/deployByRepositoryId/([^/]+)/(.*)");
+  private static final Pattern BUNDLE_URL = Pattern.compile("/service/local/staging/bundleByRepositoryId/([^/]+)");
+
+  /**
+   * A degradation of the uploads whose path matches a regular expression.
+   */
+  public static class Fault {
+
+    private final Pattern pattern;
+    private long latencyMedian;
+    private long latencyP99;
+    private long bandwidth;
+    private int errorStatus;
+    private double errorRate;
+    private int errorBurst = 1;
+    private double resetRate;
+    private int remainingErrors;
+    private long availableAt;
+
+    public Fault(String regex) {
+      this.pattern = Pattern.compile(regex);
+    }
+
+    /**
+     * Delay the responses following a log-normal distribution, in milliseconds.
+     */
+    public Fault setLatency(long median, long p99) {
+      this.latencyMedian = median;
+      this.latencyP99 = Math.max(median, p99);
+      return this;
+    }
+
+    /**
+     * Cap the bandwidth shared by the matching uploads, in bytes per second.
+     */
+    public Fault setBandwidth(long bandwidth) {
+      this.bandwidth = bandwidth;
+      return this;
+    }
+
+    /**
+     * Fail an upload with {@code status} with a probability of {@code rate}, the failure then lasts {@code burst}
+     * consecutive uploads.
+     */
+    public Fault setErrors(int status, double rate, int burst) {
+      this.errorStatus = status;
+      this.errorRate = rate;
+      this.errorBurst = Math.max(1, burst);
+      return this;
+    }
+
+    /**
+     * Reset the connection in the middle of the upload body with a probability of {@code rate}.
+     */
+    public Fault setResetRate(double resetRate) {
+      this.resetRate = resetRate;
+      return this;
+    }
+
+    private long latency(Random random) {
+      if (latencyP99 <= latencyMedian) {
+        return latencyMedian;
+      }
+      // 2.326 is the 99th percentile of the standard normal distribution
+      double sigma = Math.log((double) latencyP99 / Math.max(1, latencyMedian)) / 2.326D;
+      return (long) (Math.max(1, latencyMedian) * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    private boolean fail(Random random) {
+      if (remainingErrors > 0) {
+        remainingErrors--;
+        return true;
+      }
+      if (errorRate > 0 && random.nextDouble() < errorRate) {
+        remainingErrors = errorBurst - 1;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return the delay in milliseconds until {@code bytes} fit in the bandwidth
+     */
+    private long reserve(long bytes) {
+      long now = System.nanoTime();
+      availableAt = Math.max(now, availableAt) + bytes * 1_000_000_000L / bandwidth;
+      return (availableAt - now) / 1_000_000L;
+    }
+  }
+
+  private final Vertx vertx;
+  private final HttpServerOptions options;
+  private final List<Fault> faults = new CopyOnWriteArrayList<>();
+  private final Random random = new Random(0);
+  private final Map<String, Map<String, Long>> repositories = new ConcurrentHashMap<>();
+  private final AtomicInteger repositorySeq = new AtomicInteger();
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final AtomicInteger resourcesReceived = new AtomicInteger();
+  private final AtomicInteger requestsReceived = new AtomicInteger();
+  private final AtomicInteger throttled = new AtomicInteger();
+  private volatile long delay;
+  private volatile long createDelay;
+  private HttpServer server;
+
+  public StagingServer(Vertx vertx) {
+    this(vertx, new HttpServerOptions());
+  }
+
+  public StagingServer(Vertx vertx, HttpServerOptions options) {
+    this.vertx = vertx;
+    this.options = options;
+  }
+
+  /**
+   * Set the delay before a PUT is acknowledged, simulating the latency of Nexus.
+   */
+  public StagingServer setDelay(long delay) {
+    this.delay = delay;
+    return this;
+  }
+
+  /**
+   * Set the delay before a staging repository is created, simulating a slow Nexus.
+   */
+  public StagingServer setCreateDelay(long createDelay) {
+    this.createDelay = createDelay;
+    return this;
+  }
+
+  public StagingServer addFault(Fault fault) {
+    faults.add(fault);
+    return this;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  public int getResourcesReceived() {
+    return resourcesReceived.get();
+  }
+
+  /**
+   * @return the number of upload requests received, a bundle counts as a single request
+   */
+  public int getRequestsReceived() {
+    return requestsReceived.get();
+  }
+
+  /**
+   * @return the number of times an upload was paused to fit in the bandwidth of a fault
+   */
+  public int getThrottled() {
+    return throttled.get();
+  }
+
+  /**
+   * @return the resources received by a staging repository with their length
+   */
+  public Map<String, Long> getRepository(String id) {
+    return repositories.get(id);
+  }
+
+  /**
+   * Run the stand-in until the JVM exits, the arguments are the port (8081 by default) and the acknowledgement delay
+   * in milliseconds (0 by default). The number of upload requests received is printed every second when it changes.
+   */
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8081;
+    long delay = args.length > 1 ? Long.parseLong(args[1]) : 0L;
+    Vertx vertx = Vertx.vertx();
+    StagingServer server = new StagingServer(vertx).setDelay(delay);
+    int actualPort = server.listen(port).toCompletionStage().toCompletableFuture().get();
+    System.out.println("Staging server started on http://localhost:" + actualPort);
+    AtomicInteger reported = new AtomicInteger();
+    vertx.setPeriodic(1000, id -> {
+      int requests = server.getRequestsReceived();
+      if (reported.getAndSet(requests) != requests) {
+        System.out.println("Received " + requests + " upload requests (" + server.getResourcesReceived() +
+          " resources, " + server.getBytesReceived() + " bytes)");
+      }
+    });
+  }
+
+  public Future<Integer> listen(int port) {
+    server = vertx.createHttpServer(options).requestHandler(this::handle);
+    return server.listen(port).map(HttpServer::actualPort);
+  }
+
+  public Future<Void> close() {
+    return server != null ? server.close() : Future.succeededFuture();
+  }
+
+  private Fault match(String uri) {
+    for (Fault fault : faults) {
+      if (fault.pattern.matcher(uri).matches()) {
+        return fault;
+      }
+    }
+    return null;
+  }
+
+  private void handleBundle(HttpServerRequest req, Map<String, Long> repository, Buffer body) {
+    Map<String, Long> entries = new LinkedHashMap<>();
+    int status = 201;
+    long latency = 0;
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(body.getBytes()))) {
+      byte[] buffer = new byte[8192];
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        long length = 0;
+        int amount;
+        while ((amount = zip.read(buffer)) != -1) {
+          length += amount;
+        }
+        entries.put(entry.getName(), length);
+        Fault fault = match(entry.getName());
+        if (fault != null) {
+          if (status == 201 && fault.fail(random)) {
+            status = fault.errorStatus;
+          }
+          latency = Math.max(latency, fault.latency(random));
+        }
+      }
+    } catch (IOException e) {
+      status = 400;
+    }
+    if (status == 201) {
+      entries.forEach((uri, length) -> {
+        bytesReceived.addAndGet(length);
+        resourcesReceived.incrementAndGet();
+        repository.put(uri, length);
+      });
+    }
+    int s = status;
+    long d = delay + latency;
+    if (d > 0) {
+      vertx.setTimer(d, id -> req.response().setStatusCode(s).end());
+    } else {
+      req.response().setStatusCode(s).end();
+    }
+  }
+
+  private void handle(HttpServerRequest req) {
+    HttpMethod method = req.method();
+    String path = req.path();
+    Matcher matcher;
+    if (method == HttpMethod.PUT && (matcher = RESOURCE_URL.matcher(path)).matches()) {
+      Map<String, Long> repository = repositories.get(matcher.group(1));
+      if (repository == null) {
+        req.response().setStatusCode(404).end();
+        return;
+      }
+      requestsReceived.incrementAndGet();
+      String uri = matcher.group(2);
+      Fault fault = match(uri);
+      boolean failed = fault != null && fault.fail(random);
+      boolean reset = fault != null && fault.resetRate > 0 && random.nextDouble() < fault.resetRate;
+      AtomicLong length = new AtomicLong();
+      req.handler(chunk -> {
+        if (reset) {
+          req.response().reset();
+          return;
+        }
+        length.addAndGet(chunk.length());
+        if (fault != null && fault.bandwidth > 0) {
+          long wait = fault.reserve(chunk.length());
+          if (wait > 0) {
+            throttled.incrementAndGet();
+            req.pause();
+            vertx.setTimer(wait, id -> req.resume());
+          }
+        }
+      });
+      req.endHandler(v -> {
+        if (reset) {
+          // Empty body
+          req.response().reset();
+          return;
+        }
+        int status = failed ? fault.errorStatus : 201;
+        if (!failed) {
+          bytesReceived.addAndGet(length.get());
+          resourcesReceived.incrementAndGet();
+          repository.put(uri, length.get());
+        }
+        long d = delay + (fault != null ? fault.latency(random) : 0);
+        if (d > 0) {
+          vertx.setTimer(d, id -> req.response().setStatusCode(status).end());
+        } else {
+          req.response().setStatusCode(status).end();
+        }
+      });
+    } else if (method == HttpMethod.POST && (matcher = BUNDLE_URL.matcher(path)).matches()) {
+      Map<String, Long> repository = repositories.get(matcher.group(1));
+      if (repository == null) {
+        req.response().setStatusCode(404).end();
+        return;
+      }
+      requestsReceived.incrementAndGet();
+      req.body().onSuccess(body -> handleBundle(req, repository, body));
+    } else if (method == HttpMethod.POST && (matcher = PROFILE_URL.matcher(path)).matches()) {
+      String id = matcher.group(1) + "-" + (1000 + repositorySeq.incrementAndGet());
+      repositories.put(id, new ConcurrentHashMap<>());
+      String body = "<promoteResponse>" +
+        "<data>" +
+        "<stagedRepositoryId>" + id + "</stagedRepositoryId>" +
+        "</data>" +
+        "</promoteResponse>";
+      req.endHandler(v -> {
+        long d = createDelay;
+        if (d > 0) {
+          vertx.setTimer(d, timerID -> req.response().setStatusCode(201).end(body));
+        } else {
+          req.response().setStatusCode(201).end(body);
+        }
+      });
+    } else {
+      req.response().setStatusCode(500).end();
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.julienviet.releaser.git;
+
+import com.julienviet.releaser.GitEngine;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class GitEngineTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private GitEngine engine;
+
+  @Before
+  public void before() {
+    engine = new GitEngine();
+  }
+
+  @After
+  public void after() {
+    engine.close();
+  }
+
+  private File createRepository(String name, String... modules) throws Exception {
+    File workTree = folder.newFolder(name);
+    try (Git git = Git.init().setDirectory(workTree).call()) {
+      StoredConfig config = git.getRepository().getConfig();
+      config.setString("user", null, "name", "Releaser");
+      config.setString("user", null, "email", "releaser@example.com");
+      config.save();
+      for (String module : modules) {
+        write(new File(new File(workTree, module), "pom.xml"), "<version>1.0-SNAPSHOT</version>");
+      }
+      write(new File(workTree, "README.md"), "readme");
+      git.add().addFilepattern(".").call();
+      git.commit().setMessage("Initial").call();
+    }
+    return workTree;
+  }
+
+  private static void write(File file, String content) throws Exception {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(Repository repository, RevCommit commit, String path) throws Exception {
+    try (TreeWalk walk = TreeWalk.forPath(repository, path, commit.getTree())) {
+      assertNotNull(walk);
+      return new String(repository.open(walk.getObjectId(0)).getBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testCommitModules() throws Exception {
+    File workTree = createRepository("repo", ".", "foo", "bar");
+    write(new File(workTree, "pom.xml"), "<version>1.0</version>");
+    write(new File(workTree, "foo/pom.xml"), "<version>1.0</version>");
+    write(new File(workTree, "bar/pom.xml"), "<version>1.0</version>");
+    write(new File(workTree, "README.md"), "modified");
+    Repository repository = engine.open(workTree);
+    ObjectId id = engine.commit(repository, Arrays.asList(workTree, new File(workTree, "foo"), new File(workTree, "bar")), "Releasing 1.0");
+    assertNotNull(id);
+    try (RevWalk walk = new RevWalk(repository)) {
+      RevCommit commit = walk.parseCommit(repository.resolve("HEAD"));
+      assertEquals(id, commit.getId());
+      assertEquals("Releasing 1.0", commit.getFullMessage());
+      // A single commit for all the modules
+      assertEquals(1, commit.getParentCount());
+      assertEquals("Initial", walk.parseCommit(commit.getParent(0)).getFullMessage());
+      assertEquals("<version>1.0</version>", read(repository, commit, "pom.xml"));
+      assertEquals("<version>1.0</version>", read(repository, commit, "foo/pom.xml"));
+      assertEquals("<version>1.0</version>", read(repository, commit, "bar/pom.xml"));
+      assertEquals("readme", read(repository, commit, "README.md"));
+    }
+    try (Git git = new Git(repository)) {
+      Status status = git.status().call();
+      assertEquals(Collections.singleton("README.md"), status.getModified());
+      assertTrue(status.getChanged().isEmpty());
+    }
+  }
+
+  @Test
+  public void testCommitUnchanged() throws Exception {
+    File workTree = createRepository("repo", "foo");
+    Repository repository = engine.open(workTree);
+    ObjectId head = repository.resolve("HEAD");
+    assertNull(engine.commit(repository, Collections.singletonList(new File(workTree, "foo")), "Releasing 1.0"));
+    assertNull(engine.commit(repository, Collections.emptyList(), "Releasing 1.0"));
+    assertEquals(head, repository.resolve("HEAD"));
+  }
+
+  @Test
+  public void testCommitOnlyPoms() throws Exception {
+    File workTree = createRepository("repo", "foo");
+    write(new File(workTree, "foo/pom.xml"), "<version>1.0</version>");
+    write(new File(workTree, "README.md"), "staged");
+    write(new File(workTree, "NOTES.md"), "staged");
+    Repository repository = engine.open(workTree);
+    try (Git git = new Git(repository)) {
+      git.add().addFilepattern("README.md").addFilepattern("NOTES.md").call();
+    }
+    assertNotNull(engine.commit(repository, Collections.singletonList(new File(workTree, "foo")), "Releasing 1.0"));
+    try (RevWalk walk = new RevWalk(repository)) {
+      RevCommit commit = walk.parseCommit(repository.resolve("HEAD"));
+      assertEquals("<version>1.0</version>", read(repository, commit, "foo/pom.xml"));
+      assertEquals("readme", read(repository, commit, "README.md"));
+      try (TreeWalk tree = TreeWalk.forPath(repository, "NOTES.md", commit.getTree())) {
+        assertNull(tree);
+      }
+    }
+    try (Git git = new Git(repository)) {
+      Status status = git.status().call();
+      // The unrelated changes are still staged
+      assertEquals(Collections.singleton("README.md"), status.getChanged());
+      assertEquals(Collections.singleton("NOTES.md"), status.getAdded());
+      assertTrue(status.getModified().isEmpty());
+    }
+  }
+
+  @Test
+  public void testModified() throws Exception {
+    File workTree = createRepository("repo", ".", "foo", "bar", "juu");
+    File root = workTree;
+    File foo = new File(workTree, "foo");
+    File bar = new File(workTree, "bar");
+    File juu = new File(workTree, "juu");
+    File daa = new File(workTree, "daa");
+    write(new File(foo, "pom.xml"), "<version>1.0</version>");
+    write(new File(bar, "pom.xml"), "<version>1.0</version>");
+    write(new File(daa, "pom.xml"), "<version>1.0</version>");
+    write(new File(juu, "other.txt"), "not a pom");
+    Repository repository = engine.open(workTree);
+    try (Git git = new Git(repository)) {
+      git.add().addFilepattern("bar/pom.xml").call();
+    }
+    assertEquals(new HashSet<>(Arrays.asList(foo, bar, daa)), engine.modified(repository, Arrays.asList(root, foo, bar, juu, daa)));
+    assertEquals(Collections.emptySet(), engine.modified(repository, Collections.emptyList()));
+  }
+
+  @Test
+  public void testTag() throws Exception {
+    File workTree = createRepository("repo", "foo");
+    Repository repository = engine.open(new File(workTree, "foo"));
+    Ref ref = engine.tag(repository, "1.0", "Tagging 1.0");
+    assertEquals("refs/tags/1.0", ref.getName());
+    try (RevWalk walk = new RevWalk(repository)) {
+      assertEquals("Tagging 1.0", walk.parseTag(ref.getObjectId()).getFullMessage());
+      assertEquals(repository.resolve("HEAD"), walk.peel(walk.parseAny(ref.getObjectId())).getId());
+    }
+  }
+
+  @Test
+  public void testGroupByRepository() throws Exception {
+    File first = createRepository("first", "foo", "bar");
+    File second = createRepository("second", ".");
+    List<File> modules = Arrays.asList(new File(first, "foo"), second, new File(first, "bar"));
+    Map<Repository, List<File>> groups = engine.groupByRepository(modules, module -> module);
+    assertEquals(2, groups.size());
+    Repository repository = engine.open(first);
+    assertSame(repository, groups.keySet().iterator().next());
+    assertEquals(Arrays.asList(new File(first, "foo"), new File(first, "bar")), groups.get(repository));
+    assertEquals(Collections.singletonList(second), groups.get(engine.open(second)));
+  }
+}
@@ -0,0 +1,167 @@
+package com.julienviet.releaser.pom;
+
+import com.julienviet.releaser.PomRewriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class PomRewriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static PomRewriter rewriter() {
+    Map<String, String> versions = new HashMap<>();
+    versions.put("org.acme:parent", "2.0");
+    versions.put("org.acme:core", "2.0");
+    versions.put("org.acme:codegen", "2.0");
+    versions.put("org.acme:acme-maven-plugin", "2.0");
+    versions.put("org.apache.maven.plugins:acme-plugin", "2.0");
+    return new PomRewriter(versions);
+  }
+
+  private static String pom(String parentVersion, String version, String coreVersion, String codegenVersion, String pluginVersion, String defaultPluginVersion) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<!-- <version>1.0</version> in a comment -->\n" +
+      "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"\n" +
+      "         xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n" +
+      "  <modelVersion>4.0.0</modelVersion>\n" +
+      "\n" +
+      "  <parent>\n" +
+      "    <groupId>org.acme</groupId>\n" +
+      "    <artifactId>parent</artifactId>\n" +
+      "    <version>" + parentVersion + "</version>\n" +
+      "    <relativePath>../pom.xml</relativePath>\n" +
+      "  </parent>\n" +
+      "\n" +
+      "  <artifactId>core</artifactId>\n" +
+      "  <version>  " + version + "  </version> <!-- trailing -->\n" +
+      "\n" +
+      "  <properties>\n" +
+      "    <netty.version>4.1.0</netty.version>\n" +
+      "    <description><![CDATA[ <version>1.0</version> ]]></description>\n" +
+      "  </properties>\n" +
+      "\n" +
+      "  <dependencyManagement>\n" +
+      "    <dependencies>\n" +
+      "      <dependency>\n" +
+      "        <groupId>org.acme</groupId>\n" +
+      "        <artifactId>codegen</artifactId>\n" +
+      "        <version>" + codegenVersion + "</version>\n" +
+      "      </dependency>\n" +
+      "    </dependencies>\n" +
+      "  </dependencyManagement>\n" +
+      "\n" +
+      "  <dependencies>\n" +
+      "    <dependency><groupId>io.netty</groupId><artifactId>netty-codec</artifactId><version>${netty.version}</version></dependency>\n" +
+      "    <dependency>\n" +
+      "      <groupId>${project.groupId}</groupId>\n" +
+      "      <artifactId>core</artifactId>\n" +
+      "      <version>" + coreVersion + "</version>\n" +
+      "      <classifier>tests</classifier>\n" +
+      "    </dependency>\n" +
+      "    <dependency>\n" +
+      "      <groupId>org.acme</groupId>\n" +
+      "      <artifactId>codegen</artifactId>\n" +
+      "      <version>${project.version}</version>\n" +
+      "    </dependency>\n" +
+      "    <dependency>\n" +
+      "      <groupId>org.other</groupId>\n" +
+      "      <artifactId>core</artifactId>\n" +
+      "      <version>1.0</version>\n" +
+      "    </dependency>\n" +
+      "  </dependencies>\n" +
+      "\n" +
+      "  <build>\n" +
+      "    <plugins>\n" +
+      "      <plugin>\n" +
+      "        <groupId>org.acme</groupId>\n" +
+      "        <artifactId>acme-maven-plugin</artifactId>\n" +
+      "        <version>" + pluginVersion + "</version>\n" +
+      "        <configuration>\n" +
+      "          <version>1.0</version>\n" +
+      "        </configuration>\n" +
+      "      </plugin>\n" +
+      "      <plugin>\n" +
+      "        <artifactId>acme-plugin</artifactId>\n" +
+      "        <version>" + defaultPluginVersion + "</version>\n" +
+      "      </plugin>\n" +
+      "    </plugins>\n" +
+      "  </build>\n" +
+      "</project>\n";
+  }
+
+  private static Properties properties() {
+    Properties properties = new Properties();
+    properties.setProperty("project.groupId", "org.acme");
+    return properties;
+  }
+
+  @Test
+  public void testRewrite() {
+    String pom = pom("1.0", "1.0", "1.0", "1.0", "1.0", "1.0");
+    assertEquals(pom("2.0", "2.0", "2.0", "2.0", "2.0", "2.0"), rewriter().rewrite(pom, properties()));
+  }
+
+  @Test
+  public void testUnchanged() {
+    String pom = pom("2.0", "2.0", "2.0", "2.0", "2.0", "2.0");
+    assertSame(pom, rewriter().rewrite(pom, properties()));
+  }
+
+  @Test
+  public void testInheritedGroupId() {
+    String pom = "<project>\n" +
+      "  <parent><groupId>org.acme</groupId><artifactId>parent</artifactId><version>1.0</version></parent>\n" +
+      "  <artifactId>codegen</artifactId>\n" +
+      "  <version>1.0-SNAPSHOT</version>\n" +
+      "</project>\n";
+    assertEquals("<project>\n" +
+      "  <parent><groupId>org.acme</groupId><artifactId>parent</artifactId><version>2.0</version></parent>\n" +
+      "  <artifactId>codegen</artifactId>\n" +
+      "  <version>2.0</version>\n" +
+      "</project>\n", rewriter().rewrite(pom, new Properties()));
+  }
+
+  @Test
+  public void testRewriteFile() throws Exception {
+    File dir = folder.newFolder("module");
+    Path pom = new File(dir, "pom.xml").toPath();
+    String content = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" +
+      "<!-- D\u00e9velopp\u00e9 \u00e0 Marseille -->\n" +
+      "<project><groupId>org.acme</groupId><artifactId>core</artifactId><version>1.0</version></project>\n";
+    Files.write(pom, content.getBytes(StandardCharsets.ISO_8859_1));
+    boolean posix = Files.getFileAttributeView(pom, PosixFileAttributeView.class) != null;
+    Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+    if (posix) {
+      Files.setPosixFilePermissions(pom, permissions);
+    }
+    assertEquals(1, rewriter().rewrite(pom, new Properties()));
+    assertArrayEquals(content.replace("1.0</version>", "2.0</version>").getBytes(StandardCharsets.ISO_8859_1), Files.readAllBytes(pom));
+    if (posix) {
+      assertEquals(permissions, Files.getPosixFilePermissions(pom));
+    }
+    // No temporary file left behind
+    assertArrayEquals(new String[] { "pom.xml" }, dir.list());
+    assertEquals(0, rewriter().rewrite(pom, new Properties()));
+  }
+}
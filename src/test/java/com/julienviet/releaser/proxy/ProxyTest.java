@@ -1,11 +1,19 @@
 package com.julienviet.releaser.proxy;
 
+import com.julienviet.releaser.DeployStorm;
+import com.julienviet.releaser.LatencyHistogram;
 import com.julienviet.releaser.Proxy;
 import com.julienviet.releaser.ProxyOptions;
+import com.julienviet.releaser.ResourceStore;
+import com.julienviet.releaser.SchedulingPolicy;
+import com.julienviet.releaser.StagingServer;
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.*;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import junit.framework.AssertionFailedError;
 import org.junit.After;
@@ -13,18 +21,24 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(VertxUnitRunner.class)
 public class ProxyTest {
@@ -35,8 +49,16 @@ public class ProxyTest {
 
   Vertx vertx;
   HttpClient client;
+  String proxyDeployment;
+  Proxy proxy;
   long repoSeq = 1000;
   Map<String, Repo> repoMap = new ConcurrentHashMap<>();
+  HttpServer stagingServer;
+  Set<HttpConnection> stagingConnections = ConcurrentHashMap.newKeySet();
+  Set<HttpVersion> stagingVersions = ConcurrentHashMap.newKeySet();
+  volatile long stagingDelay;
+  volatile long stagingResetAfter = -1;
+  volatile Future<Void> stagingHold;
   Pattern profileURLMatcher = Pattern.compile("/service/local/staging/profiles/([^/]+)/start");
   Pattern resourceURLMatcher = Pattern.compile("/service/local/staging/deployByRepositoryId/([^/]+)/(.*)");
 
@@ -95,6 +117,12 @@ public class ProxyTest {
     }
   }
 
+  private static Buffer randomBuffer(int length) {
+    byte[] bytes = new byte[length];
+    new Random().nextBytes(bytes);
+    return Buffer.buffer(bytes);
+  }
+
   private static <T> T await(Future<T> fut) {
     try {
       return fut.toCompletionStage().toCompletableFuture().get(20, TimeUnit.SECONDS);
@@ -113,8 +141,34 @@ public class ProxyTest {
   @Before
   public void before() {
     vertx = Vertx.vertx();
-    HttpServer stagingServer = vertx.createHttpServer()
+    startStagingServer(new HttpServerOptions());
+    deployProxy(proxyOptions());
+    client = vertx.createHttpClient(new HttpClientOptions()
+      .setDefaultPort(8080)
+      .setKeepAlive(true)
+      .setPipelining(true), new PoolOptions().setHttp1MaxSize(1));
+  }
+
+  private void startStagingServer(HttpServerOptions options) {
+    if (stagingServer != null) {
+      await(stagingServer.close());
+    }
+    stagingServer = vertx.createHttpServer(options)
       .requestHandler(req -> {
+        stagingConnections.add(req.connection());
+        stagingVersions.add(req.version());
+        long resetAfter = stagingResetAfter;
+        if (resetAfter >= 0 && req.method() == HttpMethod.PUT) {
+          // Close the connection of the next PUT in the middle of its body
+          stagingResetAfter = -1;
+          AtomicLong received = new AtomicLong();
+          req.handler(chunk -> {
+            if (received.addAndGet(chunk.length()) > resetAfter) {
+              req.connection().close();
+            }
+          });
+          return;
+        }
         req.bodyHandler(body -> {
           HttpMethod method = req.method();
           String path = req.path();
@@ -125,10 +179,14 @@ public class ProxyTest {
               Repo repo = repoMap.get(repoId);
               if (repo != null) {
                 String uri = matcher.group(2);
-                if (repo.handlePut(uri, body)) {
-                  req.response().setStatusCode(201).end();
+                int status = repo.handlePut(uri, body) ? 201 : 500;
+                Future<Void> hold = stagingHold;
+                if (hold != null) {
+                  hold.onComplete(v -> req.response().setStatusCode(status).end());
+                } else if (stagingDelay > 0) {
+                  vertx.setTimer(stagingDelay, id -> req.response().setStatusCode(status).end());
                 } else {
-                  req.response().setStatusCode(500).end();
+                  req.response().setStatusCode(status).end();
                 }
                 return;
               }
@@ -154,7 +212,10 @@ public class ProxyTest {
         });
       });
     await(stagingServer.listen(8081));
-    Future<String> deployment = vertx.deployVerticle(new Proxy(new ProxyOptions()
+  }
+
+  private ProxyOptions proxyOptions() {
+    return new ProxyOptions()
       .setStagingProfileId("my_profile")
       .setStagingHost("localhost")
       .setStagingPort(8081)
@@ -162,7 +223,29 @@ public class ProxyTest {
       .setStagingKeepAlive(true)
       .setStagingPipelining(true)
       .setStagingMaxPoolSize(1)
-      .setPort(8080), new Proxy.Listener() {
+      .setRetryInitialDelay(1)
+      .setRetryMaxDelay(10)
+      .setBreakerOpenDelay(10)
+      .setPort(8080);
+  }
+
+  /**
+   * The proxy options uploading with HTTP/1.1 or with HTTP/2 over clear text.
+   */
+  private ProxyOptions proxyOptions(boolean http2) {
+    return proxyOptions()
+      .setStagingHttp2(http2);
+  }
+
+  private void deployProxy(ProxyOptions options) {
+    deployProxy(options, v -> ResourceStore.create(v, options));
+  }
+
+  private void deployProxy(ProxyOptions options, Function<Vertx, ResourceStore> storeFactory) {
+    if (proxyDeployment != null) {
+      await(vertx.undeploy(proxyDeployment));
+    }
+    proxy = new Proxy(options, new Proxy.Listener() {
       public void onStagingCreate(String profileId) {
         proxyListener.onStagingCreate(profileId);
       }
@@ -175,10 +258,26 @@ public class ProxyTest {
         proxyListener.onStagingFailed(profileId, cause);
       }
 
+      public void onResourceReceived(String uri, long bytes) {
+        proxyListener.onResourceReceived(uri, bytes);
+      }
+
+      public void onResourceQueued(String uri, long bytes) {
+        proxyListener.onResourceQueued(uri, bytes);
+      }
+
       public void onResourceCreate(String uri) {
         proxyListener.onResourceCreate(uri);
       }
 
+      public void onResourceSending(String uri, String connection) {
+        proxyListener.onResourceSending(uri, connection);
+      }
+
+      public void onResourceResponse(String uri, int status) {
+        proxyListener.onResourceResponse(uri, status);
+      }
+
       public void onResourceSucceeded(String uri) {
         proxyListener.onResourceSucceeded(uri);
       }
@@ -186,12 +285,32 @@ public class ProxyTest {
       public void onResourceFailed(String uri, Throwable cause) {
         proxyListener.onResourceFailed(uri, cause);
       }
-    }));
-    await(deployment);
-    client = vertx.createHttpClient(new HttpClientOptions()
-      .setDefaultPort(8080)
-      .setKeepAlive(true)
-      .setPipelining(true), new PoolOptions().setHttp1MaxSize(1));
+
+      public void onResourceRetry(String uri, int attempt, long delay) {
+        proxyListener.onResourceRetry(uri, attempt, delay);
+      }
+
+      public void onResourceAbandoned(String uri, int attempts) {
+        proxyListener.onResourceAbandoned(uri, attempts);
+      }
+
+      public void onResourceDeduplicated(String uri, long bytes) {
+        proxyListener.onResourceDeduplicated(uri, bytes);
+      }
+
+      public void onConcurrencyChange(int limit) {
+        proxyListener.onConcurrencyChange(limit);
+      }
+
+      public void onCircuitBreakerStateChange(String state) {
+        proxyListener.onCircuitBreakerStateChange(state);
+      }
+
+      public void onAdmissionStateChange(String state) {
+        proxyListener.onAdmissionStateChange(state);
+      }
+    }, storeFactory);
+    proxyDeployment = await(vertx.deployVerticle(proxy));
   }
 
   @After
@@ -208,6 +327,17 @@ public class ProxyTest {
     await(res);
   }
 
+  private void putAll(int count, String prefix, Buffer content) {
+    List<Future<?>> list = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      list.add(client.request(HttpMethod.PUT, prefix + i)
+        .compose(request -> request
+          .send(content)
+          .expecting(HttpResponseExpectation.SC_CREATED)));
+    }
+    await(Future.all(list));
+  }
+
   private Buffer get(String uri) {
     Future<Buffer> res = client.request(HttpMethod.GET, uri)
       .compose(request -> request
@@ -217,6 +347,14 @@ public class ProxyTest {
     return await(res);
   }
 
+  private int status(HttpMethod method, String uri) {
+    Future<Integer> res = client.request(method, uri)
+      .compose(request -> request
+        .send()
+        .map(HttpClientResponse::statusCode));
+    return await(res);
+  }
+
   @Test
   public void testCreateRepo() {
     Buffer buffer = Buffer.buffer("the_resource");
@@ -295,8 +433,956 @@ public class ProxyTest {
     waitUntil(() -> repo.containsKey("foo"));
     Resource resource = repo.get("foo");
     assertEquals(Collections.singletonList(Buffer.buffer("the_resource")), resource.versions);
+    // The staging server stores the resource before the proxy gets the response
+    waitUntil(() -> succeededCount.get() == 1);
     assertEquals(times, createCount.get());
     assertEquals(times - 1, failedCount.get());
     assertEquals(1, succeededCount.get());
   }
+
+  @Test
+  public void testSupersededWhileQueued() {
+    deployProxy(proxyOptions()
+      .setStagingPipelining(false)
+      .setStagingMaxPoolSize(1));
+    AtomicInteger failedCount = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceFailed(String uri, Throwable cause) {
+        failedCount.incrementAndGet();
+      }
+    };
+    stagingDelay = 500;
+    // Holds the single upstream slot while the first version of foo is queued
+    put("/bar", Buffer.buffer("the_bar"));
+    put("/foo", Buffer.buffer("the_resource_1"));
+    put("/foo", Buffer.buffer("the_resource_2"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.containsKey("foo") && repo.get("foo").versions.contains(Buffer.buffer("the_resource_2")));
+    // The queued upload still had its content
+    assertEquals(0, failedCount.get());
+    assertEquals(Buffer.buffer("the_resource_2"), get("/foo"));
+  }
+
+  @Test
+  public void testContentFailure() {
+    testContentFailure(false);
+  }
+
+  @Test
+  public void testContentFailureHttp2() {
+    testContentFailure(true);
+  }
+
+  private void testContentFailure(boolean http2) {
+    ProxyOptions options = proxyOptions(http2)
+      .setBreakerMinRequests(1)
+      .setStagingMaxPoolSize(1);
+    AtomicInteger sendFailures = new AtomicInteger(3);
+    deployProxy(options, v -> new FailingStore(ResourceStore.create(v, options), sendFailures));
+    stagingVersions.clear();
+    List<String> breakerStates = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger failedCount = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceFailed(String uri, Throwable cause) {
+        failedCount.incrementAndGet();
+      }
+
+      @Override
+      public void onCircuitBreakerStateChange(String state) {
+        breakerStates.add(state);
+      }
+    };
+    put("/foo", Buffer.buffer("the_resource"));
+    // The retries get the single pooled connection back
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.containsKey("foo"));
+    assertEquals(Collections.singletonList(Buffer.buffer("the_resource")), repo.get("foo").versions);
+    assertEquals(3, failedCount.get());
+    // Reading the content is not an upstream failure
+    assertEquals(Collections.emptyList(), breakerStates);
+    assertEquals(Collections.singleton(http2 ? HttpVersion.HTTP_2 : HttpVersion.HTTP_1_1), stagingVersions);
+  }
+
+  /**
+   * Fails the upload of the contents before anything is sent, like a store file that cannot be opened, and the
+   * opening of the {@link #openFailures} next writers.
+   */
+  static class FailingStore implements ResourceStore {
+
+    final ResourceStore store;
+    final AtomicInteger failures;
+    final AtomicInteger openFailures = new AtomicInteger();
+
+    FailingStore(ResourceStore store, AtomicInteger failures) {
+      this.store = store;
+      this.failures = failures;
+    }
+
+    Content wrap(Content content) {
+      return new Content() {
+        public long length() {
+          return content.length();
+        }
+        public String digest() {
+          return content.digest();
+        }
+        public String file() {
+          return content.file();
+        }
+        public boolean isReleased() {
+          return content.isReleased();
+        }
+        public Future<Void> send(HttpServerResponse response) {
+          return content.send(response);
+        }
+        public Future<Buffer> read() {
+          return content.read();
+        }
+        public Future<HttpClientResponse> send(HttpClientRequest request) {
+          if (failures.getAndDecrement() > 0) {
+            return Future.failedFuture("Cannot read the content");
+          }
+          return content.send(request);
+        }
+        public void release() {
+          content.release();
+        }
+      };
+    }
+
+    public Future<Content> store(String path, Buffer body) {
+      return store.store(path, body).map(this::wrap);
+    }
+    public Future<ContentWriter> open(String path) {
+      if (openFailures.getAndDecrement() > 0) {
+        return Future.failedFuture("Cannot open the writer");
+      }
+      return store.open(path);
+    }
+    public Future<Content> restore(String file, long length, String digest) {
+      return store.restore(file, length, digest).map(content -> content != null ? wrap(content) : null);
+    }
+    public long getMemoryUsage() {
+      return store.getMemoryUsage();
+    }
+    public long getDiskUsage() {
+      return store.getDiskUsage();
+    }
+    public Future<Void> close() {
+      return store.close();
+    }
+  }
+
+  @Test
+  public void testSpillToDisk() throws Exception {
+    File dir = Files.createTempDirectory("releaser").toFile();
+    deployProxy(proxyOptions()
+      .setStoreSpillThreshold(4)
+      .setStoreDirectory(dir.getAbsolutePath()));
+    Buffer buffer = Buffer.buffer("the_resource");
+    put("/foo", buffer);
+    assertEquals(1, dir.listFiles().length);
+    assertEquals(buffer, get("/foo"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.containsKey("foo"));
+    assertEquals(Collections.singletonList(buffer), repo.get("foo").versions);
+  }
+
+  @Test
+  public void testEvictUploaded() {
+    deployProxy(proxyOptions().setStoreEvictUploaded(true));
+    put("/foo.jar", Buffer.buffer("the_jar"));
+    put("/maven-metadata.xml", Buffer.buffer("the_metadata"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.containsKey("foo.jar") && repo.containsKey("maven-metadata.xml"));
+    waitUntil(() -> status(HttpMethod.GET, "/foo.jar") == 404);
+    assertEquals(Buffer.buffer("the_metadata"), get("/maven-metadata.xml"));
+  }
+
+  @Test
+  public void testStreaming() {
+    testStreaming(false);
+  }
+
+  @Test
+  public void testStreamingHttp2() {
+    testStreaming(true);
+  }
+
+  private void testStreaming(boolean http2) {
+    deployProxy(proxyOptions(http2).setStreamingThreshold(1024));
+    stagingVersions.clear();
+    repoListener = new Repo.Listener() {
+      int count = 0;
+
+      @Override
+      public boolean handlePut(String uri, Buffer content) {
+        // Fail the streamed upload, the retry uploads from the store
+        return ++count > 1;
+      }
+    };
+    Buffer buffer = randomBuffer(256 * 1024);
+    put("/foo.zip", buffer);
+    assertEquals(buffer, get("/foo.zip"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.containsKey("foo.zip"));
+    assertEquals(Collections.singletonList(buffer), repo.get("foo.zip").versions);
+    assertEquals(Collections.singleton(http2 ? HttpVersion.HTTP_2 : HttpVersion.HTTP_1_1), stagingVersions);
+  }
+
+  @Test
+  public void testStreamingOpenFailure() {
+    ProxyOptions options = proxyOptions().setStreamingThreshold(1024);
+    FailingStore store = new FailingStore(ResourceStore.create(vertx, options), new AtomicInteger());
+    deployProxy(options, v -> store);
+    AtomicInteger retries = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceRetry(String uri, int attempt, long delay) {
+        retries.incrementAndGet();
+      }
+    };
+    Buffer buffer = randomBuffer(16 * 1024);
+    put("/foo.zip", buffer);
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    // The failed PUT leaves the uploaded content as it is
+    store.openFailures.set(1);
+    HttpClientResponse resp = await(client.request(HttpMethod.PUT, "/foo.zip")
+      .compose(request -> request.send(randomBuffer(16 * 1024))));
+    assertEquals(500, resp.statusCode());
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    assertEquals(buffer, get("/foo.zip"));
+    assertEquals(Collections.singletonList(buffer), repoMap.get("test-1001").get("foo.zip").versions);
+    assertEquals(0, retries.get());
+  }
+
+  @Test
+  public void testStreamingUpstreamReset() {
+    testStreamingUpstreamReset(false);
+  }
+
+  @Test
+  public void testStreamingUpstreamResetHttp2() {
+    testStreamingUpstreamReset(true);
+  }
+
+  private void testStreamingUpstreamReset(boolean http2) {
+    deployProxy(proxyOptions(http2).setStreamingThreshold(1024));
+    stagingVersions.clear();
+    AtomicInteger failedCount = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceFailed(String uri, Throwable cause) {
+        failedCount.incrementAndGet();
+      }
+    };
+    stagingResetAfter = 64 * 1024;
+    Buffer buffer = randomBuffer(4 * 1024 * 1024);
+    // The local copy survives the upstream reset
+    put("/foo.zip", buffer);
+    assertEquals(buffer, get("/foo.zip"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.containsKey("foo.zip"));
+    assertEquals(Collections.singletonList(buffer), repo.get("foo.zip").versions);
+    assertEquals(1, failedCount.get());
+    assertEquals(Collections.singleton(http2 ? HttpVersion.HTTP_2 : HttpVersion.HTTP_1_1), stagingVersions);
+  }
+
+  @Test
+  public void testMultipleConnections() {
+    deployProxy(proxyOptions()
+      .setStagingPipelining(false)
+      .setStagingMaxPoolSize(3));
+    stagingConnections.clear();
+    stagingDelay = 10;
+    putAll(20, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 20);
+    assertEquals(3, stagingConnections.size());
+  }
+
+  @Test
+  public void testAdaptiveConcurrency() {
+    List<Integer> limits = Collections.synchronizedList(new ArrayList<>());
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onConcurrencyChange(int limit) {
+        limits.add(limit);
+      }
+    };
+    deployProxy(proxyOptions()
+      .setStagingMaxPoolSize(2)
+      .setStagingPipeliningLimit(8)
+      .setStagingAdaptiveConcurrency(true));
+    assertEquals(Collections.singletonList(2), limits);
+    stagingDelay = 10;
+    putAll(200, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 200);
+    int max = Collections.max(limits);
+    assertTrue(max > 2);
+    repoListener = new Repo.Listener() {
+      @Override
+      public boolean handlePut(String uri, Buffer content) {
+        return false;
+      }
+    };
+    put("/bar", Buffer.buffer("the_resource"));
+    waitUntil(() -> limits.get(limits.size() - 1) < max);
+  }
+
+  @Test
+  public void testRetryBackoff() {
+    deployProxy(proxyOptions()
+      .setRetryMaxAttempts(4)
+      .setRetryInitialDelay(20)
+      .setRetryMaxDelay(1000));
+    repoListener = new Repo.Listener() {
+      @Override
+      public boolean handlePut(String uri, Buffer content) {
+        return false;
+      }
+    };
+    List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger abandoned = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceRetry(String uri, int attempt, long delay) {
+        delays.add(delay);
+      }
+      @Override
+      public void onResourceAbandoned(String uri, int attempts) {
+        abandoned.set(attempts);
+      }
+    };
+    put("/foo", Buffer.buffer("the_resource"));
+    waitUntil(() -> abandoned.get() > 0);
+    assertEquals(4, abandoned.get());
+    assertEquals(3, delays.size());
+    for (int i = 0; i < delays.size(); i++) {
+      long max = 20L << i;
+      assertTrue(delays.get(i) >= max / 2 && delays.get(i) <= max);
+    }
+  }
+
+  @Test
+  public void testCircuitBreaker() {
+    deployProxy(proxyOptions()
+      .setBreakerMinRequests(4)
+      .setBreakerOpenDelay(200));
+    AtomicInteger failures = new AtomicInteger(8);
+    repoListener = new Repo.Listener() {
+      @Override
+      public boolean handlePut(String uri, Buffer content) {
+        return failures.decrementAndGet() < 0;
+      }
+    };
+    List<String> states = Collections.synchronizedList(new ArrayList<>());
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onCircuitBreakerStateChange(String state) {
+        states.add(state);
+      }
+    };
+    putAll(4, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 4);
+    assertEquals("OPEN", states.get(0));
+    assertEquals("CLOSED", states.get(states.size() - 1));
+  }
+
+  @Test
+  public void testSchedulingPolicy() {
+    deployProxy(proxyOptions()
+      .setStagingPipelining(false)
+      .setSchedulingPolicy(SchedulingPolicy.SMALL_FIRST)
+      .setSchedulingMetadataLast(true));
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    repoListener = new Repo.Listener() {
+      @Override
+      public boolean handlePut(String uri, Buffer content) {
+        order.add(uri);
+        return true;
+      }
+    };
+    stagingDelay = 100;
+    put("/first", Buffer.buffer("the_resource"));
+    put("/maven-metadata.xml", Buffer.buffer("the_metadata"));
+    put("/foo.jar", randomBuffer(128 * 1024));
+    put("/foo.pom", Buffer.buffer("the_pom"));
+    waitUntil(() -> order.size() == 4);
+    assertEquals(Arrays.asList("first", "foo.pom", "foo.jar", "maven-metadata.xml"), order);
+  }
+
+  @Test
+  public void testSchedulingQueueFull() {
+    deployProxy(proxyOptions()
+      .setStagingPipelining(false)
+      .setSchedulingQueueSize(2));
+    stagingDelay = 20;
+    putAll(10, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 10);
+  }
+
+  @Test
+  public void testDeduplicate() {
+    AtomicInteger deduplicated = new AtomicInteger();
+    AtomicLong deduplicatedBytes = new AtomicLong();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceDeduplicated(String uri, long bytes) {
+        deduplicated.incrementAndGet();
+        deduplicatedBytes.addAndGet(bytes);
+      }
+    };
+    put("/foo", Buffer.buffer("the_resource_1"));
+    Map<String, Resource> repo = repoMap.get("test-1000");
+    waitUntil(() -> repo.containsKey("foo"));
+    put("/foo", Buffer.buffer("the_resource_1"));
+    assertEquals(1, deduplicated.get());
+    assertEquals(Buffer.buffer("the_resource_1").length(), deduplicatedBytes.get());
+    put("/foo", Buffer.buffer("the_resource_2"));
+    waitUntil(() -> repo.get("foo").versions.size() == 2);
+    put("/foo", Buffer.buffer("the_resource_1"));
+    waitUntil(() -> repo.get("foo").versions.size() == 3);
+    assertEquals(1, deduplicated.get());
+    assertEquals(Arrays.asList(Buffer.buffer("the_resource_1"), Buffer.buffer("the_resource_2"), Buffer.buffer("the_resource_1")), repo.get("foo").versions);
+  }
+
+  @Test
+  public void testJournal() throws Exception {
+    File dir = Files.createTempDirectory("releaser").toFile();
+    repoListener = new Repo.Listener() {
+      @Override
+      public boolean handlePut(String uri, Buffer content) {
+        return !uri.equals("foo");
+      }
+    };
+    deployProxy(proxyOptions()
+      .setJournalDirectory(dir.getAbsolutePath())
+      .setRetryMaxAttempts(1));
+    put("/foo", Buffer.buffer("the_foo"));
+    put("/bar", Buffer.buffer("the_bar"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.containsKey("bar"));
+    await(vertx.undeploy(proxyDeployment));
+    proxyDeployment = null;
+    repoListener = Repo.Listener.DEFAULT;
+    deployProxy(proxyOptions()
+      .setJournalDirectory(dir.getAbsolutePath()));
+    assertEquals(2, repoMap.size());
+    waitUntil(() -> repo.containsKey("foo"));
+    assertEquals(Collections.singletonList(Buffer.buffer("the_foo")), repo.get("foo").versions);
+    assertEquals(Collections.singletonList(Buffer.buffer("the_bar")), repo.get("bar").versions);
+    assertEquals(Buffer.buffer("the_bar"), get("/bar"));
+  }
+
+  @Test
+  public void testJournalCheckpoint() throws Exception {
+    File dir = Files.createTempDirectory("releaser").toFile();
+    deployProxy(proxyOptions()
+      .setJournalDirectory(dir.getAbsolutePath()));
+    put("/foo", Buffer.buffer("the_foo"));
+    put("/bar", Buffer.buffer("the_bar"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    await(vertx.undeploy(proxyDeployment));
+    proxyDeployment = null;
+    assertEquals(0, new File(dir, "store").listFiles().length);
+    AtomicInteger received = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceReceived(String uri, long bytes) {
+        received.incrementAndGet();
+      }
+    };
+    deployProxy(proxyOptions()
+      .setJournalDirectory(dir.getAbsolutePath()));
+    // Nothing is replayed and a new staging repository is created
+    assertEquals(3, repoMap.size());
+    assertEquals(404, status(HttpMethod.GET, "/foo"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    assertEquals(0, received.get());
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    assertEquals(Collections.singletonList(Buffer.buffer("the_foo")), repo.get("foo").versions);
+    assertEquals(Collections.singletonList(Buffer.buffer("the_bar")), repo.get("bar").versions);
+    assertTrue(repoMap.get("test-1002").isEmpty());
+  }
+
+  @Test
+  public void testDrain() {
+    testDrain(false);
+  }
+
+  @Test
+  public void testDrainHttp2() {
+    testDrain(true);
+  }
+
+  private void testDrain(boolean http2) {
+    AtomicInteger received = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceReceived(String uri, long bytes) {
+        received.incrementAndGet();
+      }
+    };
+    deployProxy(proxyOptions(http2)
+      .setStagingMaxPoolSize(1));
+    stagingVersions.clear();
+    stagingDelay = 20;
+    putAll(10, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    assertEquals(10, repo.size());
+    assertEquals(10, received.get());
+    assertEquals(Collections.singleton(http2 ? HttpVersion.HTTP_2 : HttpVersion.HTTP_1_1), stagingVersions);
+  }
+
+  @Test
+  public void testDrainAbandoned() {
+    repoListener = new Repo.Listener() {
+      @Override
+      public boolean handlePut(String uri, Buffer content) {
+        return !uri.equals("foo");
+      }
+    };
+    deployProxy(proxyOptions()
+      .setRetryMaxAttempts(2)
+      .setRetryInitialDelay(10));
+    put("/foo", Buffer.buffer("the_foo"));
+    put("/bar", Buffer.buffer("the_bar"));
+    Future<String> res = client.request(HttpMethod.GET, Proxy.DRAIN_PATH)
+      .compose(request -> request
+        .send()
+        .compose(response -> response.body().map(body -> response.statusCode() + " " + body)));
+    assertEquals("500 1 abandoned uploads and 2 failed attempts\n", await(res));
+  }
+
+  @Test
+  public void testDrainIngestInProgress() {
+    HttpClientRequest request = await(client.request(HttpMethod.PUT, "/foo"));
+    request.putHeader(HttpHeaders.CONTENT_LENGTH, "12");
+    Future<HttpClientResponse> response = request.response();
+    await(request.write(Buffer.buffer("the_")));
+    waitUntil(() -> proxy.getIngestCount() == 1);
+    long activity = proxy.getLastActivity();
+    AtomicBoolean ended = new AtomicBoolean();
+    Future<Proxy.DrainResult> drained = proxy.drain();
+    // Whether the body was fully sent when the drain completed
+    Future<Boolean> drainedAfterEnd = drained.map(result -> ended.get());
+    ended.set(true);
+    await(request.end(Buffer.buffer("resource")));
+    assertEquals(201, await(response).statusCode());
+    assertTrue(await(drained).isSuccess());
+    assertTrue(await(drainedAfterEnd));
+    assertEquals(0, proxy.getIngestCount());
+    assertTrue(proxy.getLastActivity() >= activity);
+    assertEquals(Collections.singletonList(Buffer.buffer("the_resource")), repoMap.get("test-1000").get("foo").versions);
+  }
+
+  @Test
+  public void testHttp2() {
+    deployProxy(proxyOptions()
+      .setStagingHttp2(true)
+      .setStagingHttp2MultiplexingLimit(10));
+    stagingConnections.clear();
+    stagingVersions.clear();
+    stagingDelay = 10;
+    putAll(20, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 20);
+    assertEquals(Collections.singleton(HttpVersion.HTTP_2), stagingVersions);
+    assertEquals(1, stagingConnections.size());
+  }
+
+  @Test
+  public void testHttp2Fallback() {
+    startStagingServer(new HttpServerOptions().setHttp2ClearTextEnabled(false));
+    deployProxy(proxyOptions()
+      .setStagingHttp2(true));
+    stagingVersions.clear();
+    putAll(5, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 5);
+    assertEquals(Collections.singleton(HttpVersion.HTTP_1_1), stagingVersions);
+  }
+
+  @Test
+  public void testConditionalGet() {
+    Buffer buffer = Buffer.buffer("the_resource");
+    put("/foo", buffer);
+    HttpClientResponse head = await(client.request(HttpMethod.HEAD, "/foo")
+      .compose(request -> request
+        .send()
+        .compose(response -> response.body().map(body -> {
+          assertEquals(0, body.length());
+          return response;
+        }))));
+    assertEquals(200, head.statusCode());
+    assertEquals(String.valueOf(buffer.length()), head.getHeader(HttpHeaders.CONTENT_LENGTH));
+    String etag = head.getHeader(HttpHeaders.ETAG);
+    String lastModified = head.getHeader(HttpHeaders.LAST_MODIFIED);
+    assertNotNull(etag);
+    assertNotNull(lastModified);
+    assertEquals(304, conditionalGet(HttpHeaders.IF_NONE_MATCH, etag));
+    assertEquals(304, conditionalGet(HttpHeaders.IF_MODIFIED_SINCE, lastModified));
+    assertEquals(200, conditionalGet(HttpHeaders.IF_NONE_MATCH, "\"other\""));
+    assertEquals(404, status(HttpMethod.HEAD, "/bar"));
+    put("/foo", Buffer.buffer("the_new_resource"));
+    assertEquals(200, conditionalGet(HttpHeaders.IF_NONE_MATCH, etag));
+  }
+
+  private int conditionalGet(CharSequence header, String value) {
+    return await(client.request(HttpMethod.GET, "/foo")
+      .compose(request -> request
+        .putHeader(header, value)
+        .send()
+        .compose(response -> response.body().map(response.statusCode()))));
+  }
+
+  @Test
+  public void testMetrics() {
+    deployProxy(proxyOptions()
+      .setMetricsEndpoint(true));
+    putAll(3, "/foo", Buffer.buffer("the_resource"));
+    put("/maven-metadata.xml", Buffer.buffer("the_metadata"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    String metrics = get(Proxy.METRICS_PATH).toString();
+    assertTrue(metrics.contains("releaser_resources_received_total 4\n"));
+    assertTrue(metrics.contains("releaser_uploads_succeeded_total 4\n"));
+    assertTrue(metrics.contains("releaser_sent_bytes_total 48\n"));
+    assertTrue(metrics.contains("releaser_pending_bytes 0.0\n"));
+    assertTrue(metrics.contains("releaser_queue_depth{class=\"metadata\"} 0\n"));
+    assertTrue(metrics.contains("releaser_upload_duration_seconds_count 4\n"));
+    assertTrue(metrics.contains("releaser_upstream_response_seconds_count 4\n"));
+    assertTrue(metrics.contains("releaser_queue_wait_seconds_count 4\n"));
+  }
+
+  @Test
+  public void testEndpointMethods() {
+    deployProxy(proxyOptions()
+      .setMetricsEndpoint(true)
+      .setTraceBufferSize(64));
+    for (String endpoint : Arrays.asList(Proxy.DRAIN_PATH, Proxy.METRICS_PATH, Proxy.TRACE_PATH)) {
+      HttpClientResponse resp = await(client.request(HttpMethod.PUT, endpoint)
+        .compose(request -> request.send(Buffer.buffer("the_resource"))));
+      assertEquals(405, resp.statusCode());
+      assertEquals("GET", resp.getHeader("Allow"));
+      assertEquals(405, status(HttpMethod.POST, endpoint));
+      assertEquals(405, status(HttpMethod.HEAD, endpoint));
+      assertEquals(200, status(HttpMethod.GET, endpoint));
+    }
+    assertEquals(0, proxy.getIngestCount());
+    assertTrue(repoMap.get("test-1001").isEmpty());
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(10000, histogram.getCount());
+    assertEquals(10000, histogram.getMax());
+    assertEquals(5000, histogram.getValueAtQuantile(0.5D), 5000 / 16);
+    assertEquals(9900, histogram.getValueAtQuantile(0.99D), 9900 / 16);
+    assertEquals(10000, histogram.getValueAtQuantile(1D));
+  }
+
+  @Test
+  public void testDeployStorm() {
+    DeployStorm.Report report = await(new DeployStorm(vertx, "localhost", 8080)
+      .setModules(10)
+      .setConcurrency(4)
+      .setJarSizes(128, 16 * 1024)
+      .run());
+    assertEquals(10, report.modules);
+    assertEquals(150, report.requests);
+    assertEquals(150, report.latency.getCount());
+    Map<String, Resource> repo = repoMap.get("test-1000");
+    assertEquals(123, repo.size());
+    assertTrue(repo.containsKey("org/releaser/storm/module-9/1.0.0/module-9-1.0.0-sources.jar.sha1"));
+  }
+
+  @Test
+  public void testDeployStormOffline() {
+    StagingServer nexus = new StagingServer(vertx);
+    await(nexus.listen(8082));
+    deployProxy(proxyOptions()
+      .setStagingPort(8082)
+      .setStagingMaxPoolSize(4));
+    DeployStorm.Report report = await(new DeployStorm(vertx, "localhost", 8080)
+      .setModules(10)
+      .setConcurrency(4)
+      .setJarSizes(128, 16 * 1024)
+      .run());
+    assertEquals(150, report.requests);
+    Map<String, Long> repo = nexus.getRepository("my_profile-1001");
+    assertEquals(123, repo.size());
+    int requests = nexus.getRequestsReceived();
+    assertTrue(requests >= 123);
+    // Replay the same deploy with the bundle upload
+    deployProxy(proxyOptions()
+      .setStagingPort(8082)
+      .setStagingMaxPoolSize(4)
+      .setBundleUpload(true));
+    report = await(new DeployStorm(vertx, "localhost", 8080)
+      .setModules(10)
+      .setConcurrency(4)
+      .setJarSizes(128, 16 * 1024)
+      .run());
+    assertEquals(150, report.requests);
+    repo = nexus.getRepository("my_profile-1002");
+    assertEquals(123, repo.size());
+    assertTrue(repo.containsKey("org/releaser/storm/module-9/1.0.0/module-9-1.0.0-sources.jar.sha1"));
+    assertTrue(nexus.getRequestsReceived() - requests < requests);
+  }
+
+  @Test
+  public void testFaultInjection() {
+    StagingServer nexus = new StagingServer(vertx)
+      .setCreateDelay(100)
+      .addFault(new StagingServer.Fault("foo\\.jar.*")
+        .setErrors(503, 0.2D, 3)
+        .setResetRate(0.2D)
+        .setLatency(2, 20));
+    await(nexus.listen(8082));
+    AtomicInteger retries = new AtomicInteger();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceRetry(String uri, int attempt, long delay) {
+        retries.incrementAndGet();
+      }
+    };
+    long start = System.currentTimeMillis();
+    deployProxy(proxyOptions()
+      .setStagingPort(8082)
+      .setStagingMaxPoolSize(4)
+      .setBreakerFailureRatio(0));
+    assertTrue(System.currentTimeMillis() - start >= 100);
+    putAll(20, "/foo.jar", randomBuffer(4096));
+    putAll(20, "/foo.pom", Buffer.buffer("the_pom"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    Map<String, Long> repo = nexus.getRepository("my_profile-1001");
+    assertEquals(40, repo.size());
+    assertEquals(4096L, (long) repo.get("foo.jar7"));
+    assertTrue(retries.get() > 0);
+  }
+
+  @Test
+  public void testBandwidthCap() {
+    StagingServer nexus = new StagingServer(vertx)
+      .addFault(new StagingServer.Fault(".*")
+        .setBandwidth(256 * 1024));
+    await(nexus.listen(8082));
+    deployProxy(proxyOptions()
+      .setStagingPort(8082)
+      .setStagingMaxPoolSize(4));
+    putAll(4, "/foo", randomBuffer(32 * 1024));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    assertTrue(nexus.getThrottled() > 0);
+    assertEquals(4 * 32 * 1024, nexus.getBytesReceived());
+  }
+
+  @Test
+  public void testTrace() throws Exception {
+    File file = new File(Files.createTempDirectory("releaser").toFile(), "trace.json");
+    deployProxy(proxyOptions()
+      .setStagingMaxPoolSize(2)
+      .setTraceBufferSize(64)
+      .setTraceFile(file.getAbsolutePath()));
+    stagingDelay = 10;
+    putAll(10, "/foo", Buffer.buffer("the_resource"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    JsonArray events = new JsonObject(Buffer.buffer(Files.readAllBytes(file.toPath()))).getJsonArray("traceEvents");
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < events.size(); i++) {
+      counts.merge(events.getJsonObject(i).getString("name"), 1, Integer::sum);
+    }
+    assertEquals(10, (int) counts.get("received"));
+    assertEquals(10, (int) counts.get("queued"));
+    assertEquals(10, (int) counts.get("request"));
+    assertTrue(counts.get("thread_name") >= 3);
+    putAll(60, "/bar", Buffer.buffer("the_resource"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    events = new JsonObject(get(Proxy.TRACE_PATH)).getJsonArray("traceEvents");
+    int recorded = 0;
+    for (int i = 0; i < events.size(); i++) {
+      if (!events.getJsonObject(i).getString("ph").equals("M")) {
+        recorded++;
+      }
+    }
+    assertEquals(64, recorded);
+  }
+
+  @Test
+  public void testMultipleInstances() {
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onResourceReceived(String uri, long bytes) {
+        threads.add(Thread.currentThread().getName());
+      }
+    };
+    deployProxy(proxyOptions()
+      .setInstances(4)
+      .setStagingMaxPoolSize(4)
+      .setStreamingThreshold(1024));
+    putAll(40, "/foo", Buffer.buffer("the_resource"));
+    Buffer buffer = randomBuffer(64 * 1024);
+    putAll(8, "/bar", buffer);
+    for (int i = 0; i < 40; i++) {
+      assertEquals(Buffer.buffer("the_resource"), get("/foo" + i));
+    }
+    assertEquals(buffer, get("/bar7"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    assertEquals(48, repo.size());
+    assertEquals(Collections.singletonList(buffer), repo.get("bar7").versions);
+    assertTrue(threads.size() > 1);
+  }
+
+  @Test
+  public void testMultipleInstancesAbortedPut() throws Exception {
+    File dir = Files.createTempDirectory("releaser").toFile();
+    deployProxy(proxyOptions()
+      .setInstances(4)
+      .setStreamingThreshold(1024)
+      .setStoreDirectory(dir.getAbsolutePath()));
+    // One resource per shard, the PUT is forwarded when the connection is handled by another shard
+    for (int i = 0; i < 4; i++) {
+      HttpClientRequest request = await(client.request(HttpMethod.PUT, "/foo" + i));
+      request.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(64 * 1024));
+      await(request.write(randomBuffer(16 * 1024)));
+      waitUntil(() -> dir.listFiles().length == 1);
+      request.reset();
+      waitUntil(() -> dir.listFiles().length == 0);
+    }
+    waitUntil(() -> proxy.getIngestCount() == 0);
+  }
+
+  @Test
+  public void testProfileRouting() {
+    deployProxy(proxyOptions()
+      .setProfileRouting(true));
+    assertTrue(repoMap.values().stream().noneMatch(repo -> repo.profileId.equals("other_profile")));
+    putAll(5, "/profile/other_profile/foo", Buffer.buffer("the_other_resource"));
+    putAll(5, "/foo", Buffer.buffer("the_resource"));
+    assertEquals(Buffer.buffer("the_other_resource"), get("/profile/other_profile/foo0"));
+    assertEquals(Buffer.buffer("the_resource"), get("/foo0"));
+    assertEquals(404, status(HttpMethod.GET, "/profile/other_profile/bar"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    Repo repo = repoMap.get("test-1001");
+    assertEquals("my_profile", repo.profileId);
+    assertEquals(5, repo.size());
+    Repo other = repoMap.get("test-1002");
+    assertEquals("other_profile", other.profileId);
+    assertEquals(5, other.size());
+    assertEquals(Collections.singletonList(Buffer.buffer("the_other_resource")), other.get("foo0").versions);
+  }
+
+  @Test
+  public void testBundleUpload() {
+    StagingServer nexus = new StagingServer(vertx);
+    await(nexus.listen(8082));
+    deployProxy(proxyOptions()
+      .setStagingPort(8082)
+      .setBundleUpload(true)
+      .setBundleMaxSize(16 * 1024)
+      .setBundleMaxEntrySize(1024));
+    putAll(40, "/foo.pom", randomBuffer(512));
+    put("/foo.jar", randomBuffer(4096));
+    put("/maven-metadata.xml", Buffer.buffer("the_metadata"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    Map<String, Long> repo = nexus.getRepository("my_profile-1001");
+    assertEquals(42, repo.size());
+    assertEquals(512L, (long) repo.get("foo.pom39"));
+    assertEquals(4096L, (long) repo.get("foo.jar"));
+    // At least two bundles for the poms, the jar and the metadata
+    int requests = nexus.getRequestsReceived();
+    assertTrue(requests >= 4 && requests < 10);
+    // Fallback to a PUT per resource when the bundle upload fails
+    deployProxy(proxyOptions()
+      .setStagingPort(8082)
+      .setBundleUpload(true)
+      .setBundleEndpoint("/missing/{repositoryId}"));
+    putAll(10, "/bar.pom", Buffer.buffer("the_pom"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    repo = nexus.getRepository("my_profile-1002");
+    assertEquals(10, repo.size());
+    assertEquals(requests + 10, nexus.getRequestsReceived());
+  }
+
+  @Test
+  public void testTrafficShaping() {
+    deployProxy(proxyOptions()
+      .setStagingMaxPoolSize(4)
+      .setStagingRequestRate(10));
+    // The bucket holds 10 requests, the next ones are sent every 100ms
+    putAll(15, "/foo", Buffer.buffer("the_resource"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    long delayed = proxy.getRequestRateDelayed();
+    assertTrue(delayed > 0);
+    assertEquals(15, repoMap.get("test-1001").size());
+    proxy.setRequestRate(0);
+    putAll(30, "/bar", Buffer.buffer("the_resource"));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    assertEquals(delayed, proxy.getRequestRateDelayed());
+    // The bucket holds 64KB, the last upload waits for the debt of the third one
+    proxy.setBandwidth(64 * 1024);
+    putAll(4, "/juu", randomBuffer(32 * 1024));
+    assertEquals(200, status(HttpMethod.GET, Proxy.DRAIN_PATH));
+    assertTrue(proxy.getBandwidthDelayed() > 0);
+    assertEquals(49, repoMap.get("test-1001").size());
+  }
+
+  @Test
+  public void testAdmissionControl() {
+    deployProxy(proxyOptions()
+      .setStagingPipelining(false)
+      .setAdmissionHighCount(2));
+    List<String> states = Collections.synchronizedList(new ArrayList<>());
+    proxyListener = new Proxy.Listener() {
+      @Override
+      public void onAdmissionStateChange(String state) {
+        states.add(state);
+      }
+    };
+    stagingDelay = 20;
+    putAll(10, "/foo", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 10);
+    waitUntil(() -> proxy.getBacklogCount() == 0);
+    assertEquals(0, proxy.getBacklogBytes());
+    assertEquals("OPEN", proxy.getAdmissionState());
+    assertTrue(states.size() >= 2);
+    assertEquals("THROTTLED", states.get(0));
+    assertEquals("OPEN", states.get(states.size() - 1));
+  }
+
+  @Test
+  public void testAdmissionRetryAfter() {
+    deployProxy(proxyOptions()
+      .setAdmissionHighCount(1)
+      .setAdmissionRetryAfter(2));
+    // The uploads stay in the backlog until the staging server answers
+    Promise<Void> hold = Promise.promise();
+    stagingHold = hold.future();
+    put("/foo", Buffer.buffer("the_resource"));
+    put("/bar", Buffer.buffer("the_resource"));
+    waitUntil(() -> "THROTTLED".equals(proxy.getAdmissionState()));
+    HttpClientResponse resp = await(client.request(HttpMethod.PUT, "/juu")
+      .compose(request -> request.send(Buffer.buffer("the_resource"))));
+    assertEquals(503, resp.statusCode());
+    assertEquals("2", resp.getHeader("Retry-After"));
+    stagingHold = null;
+    hold.complete();
+    waitUntil(() -> "OPEN".equals(proxy.getAdmissionState()));
+    put("/juu", Buffer.buffer("the_resource"));
+    Map<String, Resource> repo = repoMap.get("test-1001");
+    waitUntil(() -> repo.size() == 3);
+  }
 }